@@ -0,0 +1,28 @@
+package au.edu.usc;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the usual JMH command line, always adding the GC profiler so every result
+ * comes with its allocation rate; gc.alloc.rate.norm is the bytes allocated per operation.
+ *
+ * @author Joseph Thurlow
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions cli = new CommandLineOptions(args);
+        if (cli.shouldHelp()) {
+            cli.showHelp();
+            return;
+        }
+        Options options = new OptionsBuilder().parent(cli).addProfiler(GCProfiler.class).build();
+        Runner runner = new Runner(options);
+        if (cli.shouldList()) runner.list();
+        else runner.run();
+    }
+}
@@ -0,0 +1,123 @@
+package au.edu.usc;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of one itinerary query on the loaded route graph. Each call takes the next pair from a fixed,
+ * shuffled list of every pair of cities with a route between them, so a run covers short and long routes alike.
+ * The strategy picks how the explorer answers: one of the three searches with no cache, the result cache
+ * once it holds every pair, or the precomputed all-pairs table.
+ *
+ * @author Joseph Thurlow
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ItineraryBenchmark {
+
+    /**
+     * How the explorer answers a query.
+     */
+    public enum Strategy { POINT_TO_POINT, BIDIRECTIONAL, A_STAR, CACHED, ALL_PAIRS }
+
+    @Param({"../dataset/dom_citypairs_web.csv"})
+    public String dataset;
+
+    @Param({"POINT_TO_POINT", "BIDIRECTIONAL", "A_STAR", "CACHED", "ALL_PAIRS"})
+    public Strategy strategy;
+
+    private ItineraryExplorer explorer;
+    private String[] origins;
+    private String[] destinations;
+    private int next;
+    private PrintStream out;
+    private PrintStream err;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        // checkItinerary and the loader report on the console; that output is dropped, not measured.
+        out = System.out;
+        err = System.err;
+        PrintStream discard = new PrintStream(OutputStream.nullOutputStream());
+        System.setOut(discard);
+        System.setErr(discard);
+
+        explorer = new ItineraryExplorer(strategy == Strategy.CACHED ? new ItineraryCache(100_000) : null);
+        explorer.sortRecords(dataset);
+        switch (strategy) {
+            case BIDIRECTIONAL: explorer.setSearchMode(ItineraryExplorer.SearchMode.BIDIRECTIONAL); break;
+            case A_STAR: explorer.setSearchMode(ItineraryExplorer.SearchMode.A_STAR); break;
+            case ALL_PAIRS: explorer.precomputeAllPairs(); break;
+            default:
+        }
+
+        FlightTable table = FlightTable.load(dataset);
+        TreeSet<String> cities = new TreeSet<>();
+        for (int r = 0; r < table.rowCount(); r++) {
+            cities.add(table.getString(1, r));
+            cities.add(table.getString(2, r));
+        }
+        List<String[]> pairs = new ArrayList<>();
+        for (String a : cities) {
+            for (String b : cities) {
+                if (!a.equals(b) && explorer.findItinerary(a, b) != null) pairs.add(new String[]{a, b});
+            }
+        }
+        Collections.shuffle(pairs, new Random(42));
+        origins = new String[pairs.size()];
+        destinations = new String[pairs.size()];
+        for (int i = 0; i < pairs.size(); i++) {
+            origins[i] = pairs.get(i)[0];
+            destinations[i] = pairs.get(i)[1];
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.setOut(out);
+        System.setErr(err);
+    }
+
+    private int nextPair() {
+        int i = next;
+        next = i + 1 == origins.length ? 0 : i + 1;
+        return i;
+    }
+
+    @Benchmark
+    public Itinerary findItinerary() {
+        int i = nextPair();
+        return explorer.findItinerary(origins[i], destinations[i]);
+    }
+
+    /**
+     * The console query: the same search plus formatting the result and printing it.
+     */
+    @Benchmark
+    public String checkItinerary() {
+        int i = nextPair();
+        return explorer.checkItinerary(origins[i], destinations[i]);
+    }
+
+    /**
+     * Ten shortest routes with no constraints; the strategy does not change this search.
+     */
+    @Benchmark
+    public List<Itinerary> findTenItineraries() {
+        int i = nextPair();
+        return explorer.findItineraries(origins[i], destinations[i], 10, ItineraryConstraints.NONE);
+    }
+}
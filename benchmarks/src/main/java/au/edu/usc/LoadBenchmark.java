@@ -0,0 +1,69 @@
+package au.edu.usc;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to get the records into memory and the route graph built: parsing the csv, reading the same table back
+ * from a binary snapshot, and building the route graph from a loaded table.
+ *
+ * @author Joseph Thurlow
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoadBenchmark {
+
+    @Param({"../dataset/dom_citypairs_web.csv"})
+    public String dataset;
+
+    private File snapshot;
+    private ItineraryExplorer explorer;
+    private PrintStream err;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        snapshot = Files.createTempFile("flights", ".snapshot").toFile();
+        FlightSnapshot.write(FlightTable.read(dataset), snapshot, new File(dataset));
+        // Loading the table once here leaves only the graph build in buildGraph.
+        FlightTable.load(dataset);
+        explorer = new ItineraryExplorer(null);
+        // sortRecords reports skipped routes on every load; that output is dropped, not measured.
+        err = System.err;
+        System.setErr(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.setErr(err);
+        snapshot.delete();
+    }
+
+    @Benchmark
+    public FlightTable parseCsv() throws IOException {
+        return FlightTable.read(dataset);
+    }
+
+    @Benchmark
+    public FlightTable readSnapshot() throws IOException {
+        return FlightSnapshot.read(snapshot);
+    }
+
+    /**
+     * Builds the route graph from the already loaded table, with city coordinates for A*.
+     */
+    @Benchmark
+    public ItineraryExplorer buildGraph() throws IOException {
+        explorer.sortRecords(dataset);
+        return explorer;
+    }
+}
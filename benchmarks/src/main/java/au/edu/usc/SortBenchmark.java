@@ -0,0 +1,95 @@
+package au.edu.usc;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to sort one column of keys with each sort engine, over key distributions that stress different paths:
+ * already sorted keys, a few distinct values repeated many times, uniform random keys, and keys spread across
+ * the whole range of doubles. The keys are made once per trial from a fixed seed and copied before every sort,
+ * so each engine sorts the same input; the copy is part of the measured time and the same for every engine.
+ * The engine's sort is called directly, without the timer and report around it in sortRecords.
+ *
+ * @author Joseph Thurlow
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SortBenchmark {
+
+    /**
+     * Shapes of the benchmark keys.
+     */
+    public enum Distribution {
+        /** 0, 1, 2, ... in order. */
+        SORTED,
+        /** 16 distinct values, like a month or year column. */
+        DUPLICATES,
+        /** Uniform in [0, 20000), like a distance column. */
+        RANDOM,
+        /** Random signs and exponents from 1e-300 to 1e300. */
+        WIDE_RANGE
+    }
+
+    @Param({"MergeSort", "QuickSort", "BucketSort", "RadixSort"})
+    public String engine;
+
+    @Param({"SORTED", "DUPLICATES", "RANDOM", "WIDE_RANGE"})
+    public Distribution distribution;
+
+    @Param({"10000", "1000000"})
+    public int size;
+
+    @Param({"false", "true"})
+    public boolean parallel;
+
+    private RecordSorter sorter;
+    private double[] source;
+    private double[] keys;
+    private int[] idx;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        int threshold = parallel ? 8192 : Integer.MAX_VALUE;
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        switch (engine) {
+            case "MergeSort": sorter = new MergeSort(threshold, pool); break;
+            case "QuickSort": sorter = new QuickSort(threshold, pool); break;
+            case "BucketSort": sorter = new BucketSort(threshold, pool); break;
+            case "RadixSort": sorter = new RadixSort(threshold, pool); break;
+            default: throw new IllegalArgumentException("Unknown sort engine: " + engine);
+        }
+        source = keys(distribution, size, new Random(42));
+        keys = new double[size];
+        idx = new int[size];
+    }
+
+    static double[] keys(Distribution distribution, int size, Random random) {
+        double[] keys = new double[size];
+        for (int i = 0; i < size; i++) {
+            switch (distribution) {
+                case SORTED: keys[i] = i; break;
+                case DUPLICATES: keys[i] = random.nextInt(16); break;
+                case RANDOM: keys[i] = random.nextInt(20_000); break;
+                default:
+                    double magnitude = Math.pow(10, random.nextInt(601) - 300) * (1 + random.nextDouble());
+                    keys[i] = random.nextBoolean() ? magnitude : -magnitude;
+            }
+        }
+        return keys;
+    }
+
+    @Benchmark
+    public double[] sort() {
+        System.arraycopy(source, 0, keys, 0, size);
+        for (int i = 0; i < size; i++) idx[i] = i;
+        sorter.sort(keys, idx);
+        return keys;
+    }
+}
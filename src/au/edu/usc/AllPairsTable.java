@@ -0,0 +1,226 @@
+package au.edu.usc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Precomputed shortest distances and next hops between every pair of cities of a {@link RouteGraph}.
+ * Row s holds the results of one Dijkstra from city s in its own pair of arrays, so a distance lookup is O(1)
+ * and an itinerary is rebuilt in O(path length) by following next hops. The rows are computed in parallel.
+ * The table is immutable; {@link #refresh(RouteGraph, ForkJoinPool)} returns a new table for a changed graph,
+ * recomputing only the rows the change can affect and sharing the others with this table.
+ *
+ * @author Joseph Thurlow
+ */
+public class AllPairsTable {
+
+    private static final int UNKNOWN = -2;
+
+    private final RouteGraph graph;
+    private final int n;
+    // dist[s][t] is the distance from s to t; next[s][t] the first city after s on the way, or -1.
+    // Rows are never written once computed, so refreshed tables share the rows that did not change.
+    private final int[][] dist;
+    private final int[][] next;
+    private final int refreshedRows;
+
+    private AllPairsTable(RouteGraph graph, int[][] dist, int[][] next, int refreshedRows) {
+        this.graph = graph;
+        this.n = graph.nodeCount();
+        this.dist = dist;
+        this.next = next;
+        this.refreshedRows = refreshedRows;
+    }
+
+    /**
+     * Runs one Dijkstra per city, spread over the pool.
+     *
+     * @param graph the route graph.
+     * @param pool the pool the rows are computed in.
+     * @return the table.
+     * @throws IllegalArgumentException if the table, 8 bytes per pair of cities, would not fit in the heap.
+     */
+    public static AllPairsTable build(RouteGraph graph, ForkJoinPool pool) {
+        int n = graph.nodeCount();
+        long bytes = 8L * n * n;
+        if (bytes > Runtime.getRuntime().maxMemory()) {
+            throw new IllegalArgumentException("An all-pairs table of " + n + " cities needs " + (bytes >> 20)
+                    + "MB, more than the " + (Runtime.getRuntime().maxMemory() >> 20) + "MB heap");
+        }
+        int[] rows = new int[n];
+        for (int s = 0; s < n; s++) rows[s] = s;
+        int[][] dist = new int[n][], next = new int[n][];
+        fillRows(graph, rows, dist, next, pool);
+        return new AllPairsTable(graph, dist, next, n);
+    }
+
+    /**
+     * Builds the table for a changed graph, reusing every row the change cannot affect.
+     * A row s is recomputed if a route that got longer or was removed lies on one of its shortest paths
+     * (dist(s, u) + old distance == dist(s, v)), or if a route that got shorter or was added gives a shorter
+     * way to its end (dist(s, u) + new distance < dist(s, v)). Every other row keeps all of its shortest paths
+     * and none of them can be improved, so it is copied as it is. The whole table is rebuilt if the cities changed.
+     *
+     * @param changed the changed graph.
+     * @param pool the pool the rows are computed in.
+     * @return the table for the changed graph.
+     */
+    public AllPairsTable refresh(RouteGraph changed, ForkJoinPool pool) {
+        if (changed == graph) return this;
+        if (!sameCities(changed)) return build(changed, pool);
+
+        boolean[] affected = new boolean[n];
+        for (int u = 0; u < n; u++) {
+            // Routes that got longer or were removed.
+            for (int e = graph.firstRoute(u); e < graph.firstRoute(u + 1); e++) {
+                int v = graph.routeTarget(e), old = graph.routeWeight(e);
+                if (changed.weight(u, v) > old) markTight(affected, u, v, old);
+            }
+            // Routes that got shorter or were added.
+            for (int e = changed.firstRoute(u); e < changed.firstRoute(u + 1); e++) {
+                int v = changed.routeTarget(e), now = changed.routeWeight(e);
+                if (now < graph.weight(u, v)) markImproved(affected, u, v, now);
+            }
+        }
+
+        int count = 0;
+        for (boolean a : affected) if (a) count++;
+        int[] rows = new int[count];
+        for (int s = 0, i = 0; s < n; s++) if (affected[s]) rows[i++] = s;
+
+        int[][] newDist = dist.clone(), newNext = next.clone();
+        fillRows(changed, rows, newDist, newNext, pool);
+        return new AllPairsTable(changed, newDist, newNext, count);
+    }
+
+    private void markTight(boolean[] affected, int u, int v, int weight) {
+        for (int s = 0; s < n; s++) {
+            int du = dist[s][u];
+            if (du != RouteGraph.UNREACHABLE && (long) du + weight == dist[s][v]) affected[s] = true;
+        }
+    }
+
+    private void markImproved(boolean[] affected, int u, int v, int weight) {
+        for (int s = 0; s < n; s++) {
+            int du = dist[s][u];
+            if (du != RouteGraph.UNREACHABLE && (long) du + weight < dist[s][v]) affected[s] = true;
+        }
+    }
+
+    private boolean sameCities(RouteGraph changed) {
+        if (changed.nodeCount() != n) return false;
+        for (int i = 0; i < n; i++) {
+            if (!changed.name(i).equals(graph.name(i))) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Computes the given rows, splitting them into one chunk per worker of the pool.
+     * Each chunk takes its own search context from the graph.
+     */
+    private static void fillRows(RouteGraph graph, int[] rows, int[][] dist, int[][] next, ForkJoinPool pool) {
+        int chunks = Math.max(1, Math.min(rows.length, pool.getParallelism()));
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        for (int c = 0; c < chunks; c++) {
+            final int lo = (int) ((long) rows.length * c / chunks), hi = (int) ((long) rows.length * (c + 1) / chunks);
+            Runnable work = () -> {
+                SearchContext ctx = graph.acquire();
+                try {
+                    for (int i = lo; i < hi; i++) fillRow(graph, rows[i], ctx, dist, next);
+                } finally {
+                    graph.release(ctx);
+                }
+            };
+            if (chunks == 1) work.run();
+            else tasks.add(pool.submit(work));
+        }
+        for (ForkJoinTask<?> task : tasks) task.join();
+    }
+
+    /**
+     * Runs Dijkstra from s into new arrays for its row and turns its predecessor tree into next hops. Each
+     * city's first hop is found by walking up the tree to a city whose hop is already known, or to a child of s,
+     * so the row costs O(n) on top of the search.
+     */
+    private static void fillRow(RouteGraph graph, int s, SearchContext ctx, int[][] dist, int[][] next) {
+        int n = graph.nodeCount();
+        int[] rowDist = new int[n], rowNext = new int[n];
+        graph.shortestPaths(s, ctx);
+        for (int t = 0; t < n; t++) {
+            rowDist[t] = ctx.dist(t);
+            rowNext[t] = t == s || ctx.dist(t) == RouteGraph.UNREACHABLE ? -1 : UNKNOWN;
+        }
+        for (int t = 0; t < n; t++) {
+            if (rowNext[t] != UNKNOWN) continue;
+            int v = t;
+            while (rowNext[v] == UNKNOWN && ctx.pred(v) != s) v = ctx.pred(v);
+            int hop = rowNext[v] == UNKNOWN ? v : rowNext[v];
+            for (int w = t; rowNext[w] == UNKNOWN; w = ctx.pred(w)) rowNext[w] = hop;
+        }
+        dist[s] = rowDist;
+        next[s] = rowNext;
+    }
+
+    /**
+     * @return the graph the table was computed for.
+     */
+    public RouteGraph graph() {
+        return graph;
+    }
+
+    /**
+     * @return the number of rows computed when the table was built or refreshed.
+     */
+    public int refreshedRows() {
+        return refreshedRows;
+    }
+
+    /**
+     * @param source id of the origin city.
+     * @param target id of the destination city.
+     * @return the shortest distance, or RouteGraph.UNREACHABLE.
+     */
+    public int distance(int source, int target) {
+        return dist[source][target];
+    }
+
+    /**
+     * @param source id of the origin city.
+     * @param target id of the destination city.
+     * @return the first city after the origin on a shortest route, or -1 if there is none.
+     */
+    public int nextHop(int source, int target) {
+        return next[source][target];
+    }
+
+    /**
+     * Rebuilds a shortest route by following next hops.
+     * Each leg's distance is the drop in remaining distance to the target.
+     *
+     * @param source id of the origin city.
+     * @param target id of the destination city.
+     * @return the route, or null if the target cannot be reached.
+     */
+    public Itinerary itinerary(int source, int target) {
+        int total = distance(source, target);
+        if (total == RouteGraph.UNREACHABLE) return null;
+        int[] stops = new int[n];
+        int count = 0;
+        for (int v = source; v != target; v = nextHop(v, target)) {
+            // A next hop can only cycle through a run of zero-length routes; stop after n cities at most.
+            if (count == n - 1) {
+                throw new IllegalStateException("Next hops from " + graph.name(source) + " do not reach " + graph.name(target));
+            }
+            stops[count++] = v;
+        }
+        stops[count++] = target;
+        stops = Arrays.copyOf(stops, count);
+        int[] legs = new int[count - 1];
+        for (int i = 0; i < legs.length; i++) legs[i] = distance(stops[i], target) - distance(stops[i + 1], target);
+        return new Itinerary(graph, stops, legs, total);
+    }
+}
@@ -1,175 +1,188 @@
 package au.edu.usc;
 
 import java.io.*;
-import java.text.DecimalFormat;
-import java.util.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 /**
  * Bucket sort implementation for sorting historical records of passenger flights.
  *
  * @author Joseph Thurlow
  */
-public class BucketSort {
+public class BucketSort extends RecordSorter {
 
-    private KeySet[] arr;
-    private final List<String> records = new ArrayList<>();
-    private String columnName;
+    // Buckets at or below this size are insertion sorted, larger ones are bucket sorted again.
+    private static final int INSERTION_CUTOFF = 32;
+    // Average number of keys per bucket, and the most buckets one pass will create.
+    private static final int KEYS_PER_BUCKET = 4;
+    private static final int MAX_BUCKETS = 1 << 16;
+    // Bucket passes before a range that will not spread out is handed to merge sort.
+    private static final int MAX_DEPTH = 8;
+
+    private final int parallelThreshold;
+    private final ForkJoinPool pool;
 
     /**
-     * Reads the data from the csv file specified in the parameters.
-     * Appends the specified column of data into List.
-     * Creates a List of records containing unedited rows from the csv file for use when retrieving rank.
-     *
-     * @param file CVS file required for sorting by column.
-     * @param column Specifies the column to sort by.
+     * Creates a bucket sort that scatters arrays of more than 65536 keys in parallel on the common pool.
      */
-    public void sortRecords(String file, int column) throws IOException {
-        List<String> data = new ArrayList<>();
-
-        try {
-            BufferedReader br = new BufferedReader(new FileReader(file));
-            columnName = br.readLine().split(",")[column - 1]; // To skip reading the first line.
-            String line;
-            while ((line = br.readLine()) != null) {
-                records.add(line);
-                // Use comma as separator.
-                String[] cols = line.split(",");
-                data.add(cols[column - 1]);
-            }
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-        }
-
-        // Append all data to array (arr) as 'set' objects.
-        // Finds the largest Value.
-        double largestVal = 0;
-        arr = new KeySet[data.size()];
-        for(int i = 0; i<data.size(); i++) {
-            double val = Double.parseDouble(data.get(i));
-            if (val > largestVal) largestVal = val;
-            double prepVal = prepData(val);
-            arr[i] = new KeySet(i, prepVal);
-        }
-
-        // Run the sorting algorithm.
-        long start = System.currentTimeMillis();
-        bucketSort(arr, (int) largestVal + 1);
-        long result = System.currentTimeMillis() - start;
-
-        System.out.println("\nRuntime of " + this.getClass().getName() + " on " + columnName + ": " + result + "ms\n");
+    public BucketSort() {
+        this(1 << 16, ForkJoinPool.commonPool());
     }
 
     /**
-     * Prepares the data for use with algorithm.
+     * Creates a bucket sort with the given parallel threshold.
      *
-     * @param val Unprepared data.
-     * @return the value prepared for use with the bucket sort algorithm.
+     * @param parallelThreshold arrays larger than this are counted and scattered in parallel chunks;
+     *                          Integer.MAX_VALUE keeps the sort on the calling thread.
+     * @param pool the pool the parallel work runs in.
      */
-    private Double prepData(Double val) {
-        val *= 10;
-        val = Double.parseDouble(new DecimalFormat("#").format(val));
-        return val;
+    public BucketSort(int parallelThreshold, ForkJoinPool pool) {
+        if (parallelThreshold < 1) throw new IllegalArgumentException("Threshold must be positive: " + parallelThreshold);
+        this.parallelThreshold = parallelThreshold;
+        this.pool = pool;
+    }
+
+    @Override
+    protected void sort(double[] keys, int[] idx) {
+        int chunks = keys.length > parallelThreshold ? pool.getParallelism() : 1;
+        bucketSort(keys, idx, keys.clone(), idx.clone(), 0, keys.length, 0, chunks);
     }
 
     /**
      * Simple insertion sort algorithm.
-     * Used to sort the 'buckets'.
+     * Used to sort one small 'bucket', a range of the array.
      *
-     * @param arr array to be sorted.
+     * @param keys array to be sorted.
+     * @param idx row indexes moved alongside keys.
+     * @param from first index of the bucket.
+     * @param to index after the last index of the bucket.
      */
-    private static void insertSort (ArrayList<KeySet> arr) {
-
-        int size = arr.size();
+    private static void insertSort(double[] keys, int[] idx, int from, int to) {
 
-        for (int i = 0; i < size; ++i) {
-            KeySet key = arr.get(i);
+        for (int i = from + 1; i < to; ++i) {
+            double key = keys[i];
+            int keyIdx = idx[i];
             int j = i - 1;
 
-            // While j is larger than or equal to zero and val at j is bigger than val at increment.
-            while (j >= 0 && arr.get(j).getVal().intValue() > key.getVal().intValue()) {
-                arr.set(j + 1, arr.get(j));
+            // While j is larger than or equal to the start and val at j is bigger than val at increment.
+            while (j >= from && keys[j] > key) {
+                keys[j + 1] = keys[j];
+                idx[j + 1] = idx[j];
                 j--;
             }
-            arr.set(j + 1, key);
+            keys[j + 1] = key;
+            idx[j + 1] = keyIdx;
         }
     }
 
     /**
-     * The main recursive bucket sort operation.
+     * The main bucket sort operation.
+     * Buckets are spread evenly over the observed min/max of the range and sized from its length, so any
+     * doubles (negative, fractional or in the hundreds of millions) get a bounded number of buckets.
+     * Keys are counted per bucket and scattered into place in one flat array; each bucket range is then
+     * insertion sorted, or bucket sorted again if it is large. Scattering keeps keys in their original
+     * order within a bucket, so the sort is stable.
      *
-     * @param arr the array to be sorted.
-     * @param size the size of the array.
+     * @param keys the array to be sorted.
+     * @param idx row indexes moved alongside keys.
+     * @param keyBuf scratch array the size of keys.
+     * @param idxBuf scratch array the size of idx.
+     * @param from first index of the range.
+     * @param to index after the last index of the range.
+     * @param depth number of bucket passes already applied to the range.
+     * @param chunks number of parallel chunks to count and scatter with.
      */
-    private static void bucketSort(KeySet[] arr, int size) {
-        if (size <= 0) return;
+    private void bucketSort(double[] keys, int[] idx, double[] keyBuf, int[] idxBuf,
+                            int from, int to, int depth, int chunks) {
+        int n = to - from;
+        if (n <= INSERTION_CUTOFF) {
+            insertSort(keys, idx, from, to);
+            return;
+        }
 
-        @SuppressWarnings("unchecked")
-        ArrayList<KeySet>[] bucketArr = new ArrayList[size];
+        double min = keys[from], max = keys[from];
+        for (int i = from + 1; i < to; i++) {
+            if (keys[i] < min) min = keys[i];
+            else if (keys[i] > max) max = keys[i];
+        }
+        if (min == max) return;
+        // Halving both ends keeps the width finite for keys at the edges of the double range.
+        double width = max * 0.5 - min * 0.5;
+        if (depth >= MAX_DEPTH || Double.isInfinite(width) || Double.isNaN(width)) {
+            MergeSort.sortRange(keys, idx, from, to);
+            return;
+        }
 
-        // Create buckets.
-        for (int i = 0; i < size; i++) {
-            bucketArr[i] = new ArrayList<>();
+        int size = Math.max(2, Math.min(MAX_BUCKETS, n / KEYS_PER_BUCKET));
+        double base = min, scale = (size - 1) / width;
+
+        // Count the elements for each bucket, one histogram per chunk.
+        int[][] counts = new int[chunks][size];
+        forEachChunk(chunks, from, to, (c, lo, hi) -> {
+            int[] count = counts[c];
+            for (int i = lo; i < hi; i++) count[bucket(keys[i], base, scale)]++;
+        });
+
+        // Turn the histograms into the start of each chunk's slice of each bucket.
+        int[] start = new int[size + 1];
+        int pos = from;
+        for (int b = 0; b < size; b++) {
+            start[b] = pos;
+            for (int c = 0; c < chunks; c++) {
+                int count = counts[c][b];
+                counts[c][b] = pos;
+                pos += count;
+            }
         }
+        start[size] = to;
 
         // Sort elements into buckets.
-        for (KeySet set : arr) {
-            int bucketIdx = set.getVal().intValue() / 10;
-            bucketArr[bucketIdx].add(set);
-        }
+        System.arraycopy(keys, from, keyBuf, from, n);
+        System.arraycopy(idx, from, idxBuf, from, n);
+        forEachChunk(chunks, from, to, (c, lo, hi) -> {
+            int[] next = counts[c];
+            for (int i = lo; i < hi; i++) {
+                int p = next[bucket(keyBuf[i], base, scale)]++;
+                keys[p] = keyBuf[i];
+                idx[p] = idxBuf[i];
+            }
+        });
 
         // Sort the elements in each bucket.
-        for (ArrayList<KeySet> bucket : bucketArr) {
-            insertSort(bucket);
+        for (int b = 0; b < size; b++) {
+            bucketSort(keys, idx, keyBuf, idxBuf, start[b], start[b + 1], depth + 1, 1);
         }
+    }
 
-        // Assemble array.
-        int index = 0;
-        for(List<KeySet> bucket : bucketArr) {
-            for(KeySet val : bucket) {
-                arr[index++] = val;
-            }
-        }
+    private static int bucket(double key, double min, double scale) {
+        return (int) ((key * 0.5 - min * 0.5) * scale);
     }
 
+    /**
+     * Work applied to one chunk of a range.
+     */
+    private interface ChunkWork {
+        void run(int chunk, int from, int to);
+    }
 
     /**
-     * Returns the flight records with the given ranking order.
-     *
-     * @param rank Specifies the rank of the records desired.
+     * Splits a range into equal chunks and runs the work on each, in parallel when there is more than one.
      */
-    public void get(int rank) {
-        // Checks to make sure the records are imported and sorted before rank lookup.
-        if (arr == null) {
-            System.out.println("Records must be imported and sorted before rank is called!");
+    private void forEachChunk(int chunks, int from, int to, ChunkWork work) {
+        if (chunks == 1) {
+            work.run(0, from, to);
             return;
         }
-
-        // Finds and prints records with the desired rank.
-        if (rank == 0) {
-            System.out.println(Arrays.toString(arr)); // Prints the entire ordered list of keys and values.
-        } else if (rank < 0) {
-            System.out.println("ERROR: Invalid rank input.");
-        } else {
-            System.out.println("RECORDS for " + columnName + " at RANK " + rank + ":");
-            int iterateRank = 1;
-            boolean recordFound = false;
-            double currentVal = arr[arr.length - 1].getVal();
-
-            for (int i = arr.length - 1; i > -1; i--) {
-
-                if (currentVal != arr[i].getVal()) {
-                    if (recordFound) break;
-                    currentVal = arr[i].getVal();
-                    iterateRank++;
-                }
-
-                if (rank == iterateRank) {
-                    recordFound = true;
-                    System.out.println("ROW " + (arr[i].getIdx() + 2) + ": " + records.get(arr[i].getIdx()));
-                }
-            }
-            if (!recordFound) System.out.println("No RECORDS found for " + columnName + " at RANK " + rank + "!");
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        long n = to - from;
+        for (int c = 0; c < chunks; c++) {
+            final int chunk = c;
+            final int lo = from + (int) (n * c / chunks), hi = from + (int) (n * (c + 1) / chunks);
+            tasks.add(pool.submit(() -> work.run(chunk, lo, hi)));
         }
+        for (ForkJoinTask<?> task : tasks) task.join();
     }
 
     public static void main(String[] args) throws IOException {
@@ -177,7 +190,7 @@ public class BucketSort {
         sort.sortRecords("./dataset/dom_citypairs_web.csv", 6);
 
         // Change parameter value below to get records according to rank.
-        // Note: The parameter value 0 will print a sorted list of all the Set objects
+        // Note: The parameter value 0 will print a sorted list of all the keys
         // The format for a set is {original_array_index, value}.
         sort.get(5);
 
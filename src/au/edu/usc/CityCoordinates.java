@@ -0,0 +1,85 @@
+package au.edu.usc;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Latitude and longitude of each city, read from a csv file with the columns City, Latitude and Longitude.
+ * Used to give the itinerary search a great-circle estimate of the distance still to fly.
+ *
+ * @author Joseph Thurlow
+ */
+public class CityCoordinates {
+
+    /** Mean radius of the earth in km. */
+    public static final double EARTH_RADIUS_KM = 6371.0088;
+
+    private final Map<String, double[]> coordinates;
+
+    private CityCoordinates(Map<String, double[]> coordinates) {
+        this.coordinates = coordinates;
+    }
+
+    /**
+     * Reads a coordinates file. City names are upper-cased to match the flight records.
+     *
+     * @param file CSV file of City, Latitude, Longitude rows.
+     * @return the coordinates in the file.
+     */
+    public static CityCoordinates load(String file) throws IOException {
+        Map<String, double[]> coordinates = new HashMap<>();
+        try (CsvScanner scanner = new CsvScanner(file)) {
+            scanner.scan(row -> {
+                double lat = row.parseDouble(1), lon = row.parseDouble(2);
+                if (lat < -90 || lat > 90 || lon < -180 || lon > 180) {
+                    throw new IllegalArgumentException("Coordinates out of range at offset " + row.lineOffset() + ": " + row.line());
+                }
+                coordinates.put(row.text(0).toUpperCase(), new double[]{lat, lon});
+                return true;
+            });
+        }
+        return new CityCoordinates(coordinates);
+    }
+
+    /**
+     * @param city city name.
+     * @return true if the city has coordinates.
+     */
+    public boolean contains(String city) {
+        return coordinates.containsKey(city);
+    }
+
+    /**
+     * @param city city name.
+     * @return the latitude in degrees, or NaN if the city has no coordinates.
+     */
+    public double latitude(String city) {
+        double[] c = coordinates.get(city);
+        return c == null ? Double.NaN : c[0];
+    }
+
+    /**
+     * @param city city name.
+     * @return the longitude in degrees, or NaN if the city has no coordinates.
+     */
+    public double longitude(String city) {
+        double[] c = coordinates.get(city);
+        return c == null ? Double.NaN : c[1];
+    }
+
+    /**
+     * Great-circle distance between two points by the haversine formula.
+     *
+     * @param lat1 latitude of the first point in radians.
+     * @param lon1 longitude of the first point in radians.
+     * @param lat2 latitude of the second point in radians.
+     * @param lon2 longitude of the second point in radians.
+     * @return the distance in km.
+     */
+    public static double haversine(double lat1, double lon1, double lat2, double lon2) {
+        double sinLat = Math.sin((lat2 - lat1) / 2), sinLon = Math.sin((lon2 - lon1) / 2);
+        double a = sinLat * sinLat + Math.cos(lat1) * Math.cos(lat2) * sinLon * sinLon;
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+}
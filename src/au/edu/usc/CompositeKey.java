@@ -0,0 +1,124 @@
+package au.edu.usc;
+
+import java.util.List;
+
+/**
+ * Encodes a multi-column sort order into one numeric key per row, so the existing sort engines can
+ * rank rows by several columns at once.
+ * Each column is first replaced by the dense rank of its value (0 for the smallest distinct value),
+ * flipped for ascending columns so that the row ranked first always has the largest key.
+ * The ranks are then packed into fixed-width bit fields, most significant column first.
+ *
+ * @author Joseph Thurlow
+ */
+public class CompositeKey {
+
+    // Largest packed width that a double still holds exactly.
+    private static final int DOUBLE_BITS = 53;
+
+    private CompositeKey() {
+    }
+
+    /**
+     * Builds the composite key of every row.
+     *
+     * @param table the loaded flight records.
+     * @param order columns to rank by, most significant first.
+     * @return one key per row; sorting ascending and reading from the end gives the requested order.
+     */
+    public static double[] encode(FlightTable table, List<SortKey> order) {
+        if (order.isEmpty()) throw new IllegalArgumentException("At least one sort key is required");
+        int n = table.rowCount();
+        if (n == 0) return new double[0];
+        int[][] ranks = new int[order.size()][];
+        int[] widths = new int[order.size()];
+        int totalBits = 0;
+
+        for (int k = 0; k < order.size(); k++) {
+            SortKey key = order.get(k);
+            int[] distinct = new int[1];
+            ranks[k] = denseRanks(table.keys(key.getColumn()), distinct);
+            if (!key.isDescending()) {
+                for (int r = 0; r < n; r++) ranks[k][r] = distinct[0] - 1 - ranks[k][r];
+            }
+            widths[k] = Math.max(1, 32 - Integer.numberOfLeadingZeros(distinct[0] - 1));
+            totalBits += widths[k];
+        }
+
+        double[] keys = new double[n];
+        if (totalBits <= DOUBLE_BITS) {
+            // Fast path: the packed fields fit in the exact integer range of a double.
+            for (int r = 0; r < n; r++) {
+                long packed = 0;
+                for (int k = 0; k < ranks.length; k++) packed = (packed << widths[k]) | ranks[k][r];
+                keys[r] = packed;
+            }
+            return keys;
+        }
+
+        // Too wide to pack: order the rows one column at a time with a stable sort, least significant first,
+        // then number the distinct combinations.
+        int[] perm = new int[n];
+        for (int r = 0; r < n; r++) perm[r] = r;
+        long[] column = new long[n];
+        RadixSort radix = new RadixSort();
+        for (int k = ranks.length - 1; k >= 0; k--) {
+            for (int i = 0; i < n; i++) column[i] = ranks[k][perm[i]];
+            radix.sort(column, perm);
+        }
+        int rank = 0;
+        for (int i = 0; i < n; i++) {
+            if (i > 0 && !sameRanks(ranks, perm[i - 1], perm[i])) rank++;
+            keys[perm[i]] = rank;
+        }
+        return keys;
+    }
+
+    /**
+     * Compares two rows as their keys from {@link #encode} compare, without building the keys.
+     *
+     * @param table the loaded flight records.
+     * @param order columns to rank by, most significant first.
+     * @param a first row.
+     * @param b second row.
+     * @return negative if row a has the smaller key, so comes later in the order, 0 if the rows tie.
+     */
+    public static int compare(FlightTable table, List<SortKey> order, int a, int b) {
+        for (SortKey key : order) {
+            double x = table.getDouble(key.getColumn(), a), y = table.getDouble(key.getColumn(), b);
+            // Ascending columns have their ranks flipped.
+            if (x != y) return (x < y) == key.isDescending() ? -1 : 1;
+        }
+        return 0;
+    }
+
+    /**
+     * Replaces each key by the position of its value among the distinct values.
+     *
+     * @param keys one key per row; reordered by the call.
+     * @param distinct receives the number of distinct values in its first element.
+     * @return the dense rank of each row.
+     */
+    private static int[] denseRanks(double[] keys, int[] distinct) {
+        int n = keys.length;
+        int[] idx = new int[n];
+        for (int i = 0; i < n; i++) idx[i] = i;
+        new RadixSort().sort(keys, idx);
+
+        int[] ranks = new int[n];
+        int rank = 0;
+        for (int i = 0; i < n; i++) {
+            if (i > 0 && keys[i] != keys[i - 1]) rank++;
+            ranks[idx[i]] = rank;
+        }
+        distinct[0] = n == 0 ? 0 : rank + 1;
+        return ranks;
+    }
+
+    private static boolean sameRanks(int[][] ranks, int a, int b) {
+        for (int[] column : ranks) {
+            if (column[a] != column[b]) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,411 @@
+package au.edu.usc;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Memory-mapped scanner for comma separated files.
+ * Lines are read straight out of the mapped file: the scanner only records where each field starts and ends,
+ * and numbers are parsed from those bytes without creating Strings. The file can be split at line boundaries
+ * so several threads scan separate parts of it at once.
+ * Fields are separated by plain commas; quoted fields are not supported, as none of the datasets use them.
+ *
+ * @author Joseph Thurlow
+ */
+public class CsvScanner implements Closeable {
+
+    /**
+     * Receives each row of a scan.
+     */
+    public interface RowVisitor {
+        /**
+         * @param row the current row, only valid during the call.
+         * @return true to continue with the next row, false to stop the scan.
+         */
+        boolean row(Row row);
+    }
+
+    private final FileChannel channel;
+    private final long size;
+    private final String[] header;
+    private final long dataStart;
+
+    /**
+     * Opens the file and reads its header line.
+     *
+     * @param file CSV file to scan.
+     */
+    public CsvScanner(String file) throws IOException {
+        channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ);
+        try {
+            size = channel.size();
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, 1 << 16));
+            int end = 0;
+            while (end < buf.limit() && buf.get(end) != '\n') end++;
+            if (end == 0 || end == buf.limit() && end < size) {
+                throw new IOException("No header line in csv file: " + file);
+            }
+            dataStart = Math.min(end + 1, size);
+            byte[] line = new byte[end > 0 && buf.get(end - 1) == '\r' ? end - 1 : end];
+            buf.get(line);
+            header = new String(line, StandardCharsets.UTF_8).split(",");
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public String[] header() {
+        return header.clone();
+    }
+
+    /**
+     * @return the size of the file in bytes.
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Splits the data lines (everything after the header) into parts that each start at the beginning of a line.
+     *
+     * @param parts number of parts wanted; fewer are returned for small files.
+     * @return the byte offset where each part starts, followed by the end of the file.
+     */
+    public long[] split(int parts) throws IOException {
+        List<Long> bounds = new ArrayList<>();
+        bounds.add(dataStart);
+        long length = size - dataStart;
+        for (int p = 1; p < parts; p++) {
+            long pos = nextLine(dataStart + length * p / parts);
+            if (pos > bounds.get(bounds.size() - 1) && pos < size) bounds.add(pos);
+        }
+        bounds.add(size);
+        long[] result = new long[bounds.size()];
+        for (int i = 0; i < result.length; i++) result[i] = bounds.get(i);
+        return result;
+    }
+
+    // Offset of the first line starting at or after pos.
+    private long nextLine(long pos) throws IOException {
+        if (pos <= dataStart) return dataStart;
+        ByteBuffer one = ByteBuffer.allocate(4096);
+        long p = pos - 1;
+        while (p < size) {
+            one.clear();
+            int read = channel.read(one, p);
+            if (read <= 0) break;
+            for (int i = 0; i < read; i++) {
+                if (one.get(i) == '\n') return p + i + 1;
+            }
+            p += read;
+        }
+        return size;
+    }
+
+    /**
+     * Scans every data line of the file on the calling thread.
+     *
+     * @param visitor receives each row.
+     */
+    public void scan(RowVisitor visitor) throws IOException {
+        scan(dataStart, size, visitor);
+    }
+
+    /**
+     * Scans the lines in part of the file. The part must start at the beginning of a line,
+     * as the offsets from {@link #split(int)} do. Blank lines are skipped.
+     * The row passed to the visitor is reused for every line.
+     *
+     * @param from offset of the first line.
+     * @param to offset after the last line.
+     * @param visitor receives each row.
+     */
+    public void scan(long from, long to, RowVisitor visitor) throws IOException {
+        Row row = new Row(header.length);
+        long pos = from;
+        while (pos < to) {
+            // A mapping is limited to 2GB, so very large parts are mapped a window at a time.
+            long window = Math.min(to - pos, Integer.MAX_VALUE);
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, pos, window);
+            int limit = (int) window, start = 0;
+            while (start < limit) {
+                int end = start;
+                while (end < limit && buf.get(end) != '\n') end++;
+                if (end == limit && pos + limit < to) break; // Line continues in the next window.
+                row.reset(buf, pos, start, end > start && buf.get(end - 1) == '\r' ? end - 1 : end);
+                if (row.length() > 0 && !visitor.row(row)) return;
+                start = end + 1;
+            }
+            if (start == 0) throw new IOException("Line longer than 2GB at offset " + pos);
+            pos += Math.min(start, limit);
+        }
+    }
+
+    /**
+     * Creates a reader for single lines at known offsets, as given by {@link Row#lineOffset()} and
+     * {@link Row#length()}. It reads through the scanner's channel with positional reads instead of mapping
+     * each line, so it suits fetching many scattered lines.
+     *
+     * @return a reader that reuses one buffer and one row.
+     */
+    public LineReader lines() {
+        return new LineReader();
+    }
+
+    /**
+     * Reads single lines of the file into a reused buffer.
+     */
+    public final class LineReader {
+        private ByteBuffer buf = ByteBuffer.allocate(1 << 12);
+        private final Row row = new Row(header.length);
+
+        private LineReader() {
+        }
+
+        /**
+         * @param offset offset of the line in the file.
+         * @param length length of the line in bytes, without the line break.
+         * @return the line's row, only valid until the next read.
+         */
+        public Row read(long offset, int length) throws IOException {
+            if (length > buf.capacity()) buf = ByteBuffer.allocate(Math.max(length, buf.capacity() * 2));
+            buf.clear().limit(length);
+            while (buf.hasRemaining()) {
+                if (channel.read(buf, offset + buf.position()) < 0) {
+                    throw new EOFException("Line at offset " + offset + " runs past the end of the file");
+                }
+            }
+            row.reset(buf, offset, 0, length);
+            return row;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * One line of the file, seen through the field offsets found in it.
+     */
+    public static final class Row {
+        // Powers of ten that a double holds exactly.
+        private static final double[] POWERS = {
+                1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+                1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+        };
+
+        private ByteBuffer buf;
+        private long offset;
+        private int lineStart, lineEnd, fields;
+        private int[] fieldStart, fieldEnd;
+
+        Row(int expectedFields) {
+            fieldStart = new int[Math.max(expectedFields, 1)];
+            fieldEnd = new int[fieldStart.length];
+        }
+
+        void reset(ByteBuffer buf, long offset, int start, int end) {
+            this.buf = buf;
+            this.offset = offset;
+            lineStart = start;
+            lineEnd = end;
+            fields = 0;
+            if (end == start) return;
+            int fieldFrom = start;
+            for (int i = start; i <= end; i++) {
+                if (i == end || buf.get(i) == ',') {
+                    if (fields == fieldStart.length) {
+                        fieldStart = Arrays.copyOf(fieldStart, fields * 2);
+                        fieldEnd = Arrays.copyOf(fieldEnd, fields * 2);
+                    }
+                    fieldStart[fields] = fieldFrom;
+                    fieldEnd[fields++] = i;
+                    fieldFrom = i + 1;
+                }
+            }
+        }
+
+        public int fieldCount() {
+            return fields;
+        }
+
+        /**
+         * @return the offset of the line in the file.
+         */
+        public long lineOffset() {
+            return offset + lineStart;
+        }
+
+        /**
+         * @return the length of the line in bytes, without the line break.
+         */
+        public int length() {
+            return lineEnd - lineStart;
+        }
+
+        /**
+         * @param field 0-based field number.
+         * @return true if the field is empty.
+         */
+        public boolean isEmpty(int field) {
+            return fieldStart[check(field)] == fieldEnd[field];
+        }
+
+        /**
+         * @param field 0-based field number.
+         * @return true if the field is a number with a fraction or exponent.
+         */
+        public boolean isDecimal(int field) {
+            for (int i = fieldStart[check(field)]; i < fieldEnd[field]; i++) {
+                byte b = buf.get(i);
+                if (b == '.' || b == 'e' || b == 'E') return true;
+            }
+            return false;
+        }
+
+        /**
+         * @param field 0-based field number.
+         * @return true if the field can be parsed by {@link #parseDouble(int)}.
+         */
+        public boolean isNumber(int field) {
+            int i = fieldStart[check(field)], end = fieldEnd[field];
+            if (i < end && (buf.get(i) == '-' || buf.get(i) == '+')) i++;
+            boolean digits = false;
+            for (; i < end; i++) {
+                byte b = buf.get(i);
+                if (b >= '0' && b <= '9') digits = true;
+                else if (b != '.' && b != 'e' && b != 'E' && b != '-' && b != '+') return false;
+            }
+            if (!digits) return false;
+            try {
+                parseDouble(field);
+                return true;
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        }
+
+        /**
+         * Parses a whole number straight from the field bytes.
+         *
+         * @param field 0-based field number.
+         * @return the value.
+         */
+        public long parseLong(int field) {
+            int i = fieldStart[check(field)], end = fieldEnd[field];
+            boolean negative = false;
+            if (i < end && (buf.get(i) == '-' || buf.get(i) == '+')) negative = buf.get(i++) == '-';
+            if (i == end) throw error(field);
+            long val = 0;
+            for (; i < end; i++) {
+                int d = buf.get(i) - '0';
+                if (d < 0 || d > 9) throw error(field);
+                // Accumulates negatively so Long.MIN_VALUE can be read.
+                if (val < (Long.MIN_VALUE + d) / 10) throw error(field);
+                val = val * 10 - d;
+            }
+            if (!negative && val == Long.MIN_VALUE) throw error(field);
+            return negative ? val : -val;
+        }
+
+        /**
+         * Parses a decimal number straight from the field bytes.
+         * Plain decimals with up to 15 significant digits are exact: the digits and the power of ten are both
+         * exact doubles, so one correctly rounded division gives the nearest double. Anything else is handed
+         * to Double.parseDouble.
+         *
+         * @param field 0-based field number.
+         * @return the value.
+         */
+        public double parseDouble(int field) {
+            int i = fieldStart[check(field)], end = fieldEnd[field];
+            boolean negative = false;
+            if (i < end && (buf.get(i) == '-' || buf.get(i) == '+')) negative = buf.get(i++) == '-';
+            long mantissa = 0;
+            int digits = 0, fraction = -1;
+            boolean simple = i < end, any = false;
+            for (; i < end && simple; i++) {
+                byte b = buf.get(i);
+                if (b >= '0' && b <= '9') {
+                    any = true;
+                    if (mantissa != 0 || b != '0') digits++;
+                    mantissa = mantissa * 10 + (b - '0');
+                    if (fraction >= 0) fraction++;
+                } else if (b == '.' && fraction < 0) {
+                    fraction = 0;
+                } else {
+                    simple = false;
+                }
+            }
+            if (simple && any && digits <= 15 && fraction <= 22) {
+                double val = fraction > 0 ? mantissa / POWERS[fraction] : mantissa;
+                return negative ? -val : val;
+            }
+            return Double.parseDouble(text(field));
+        }
+
+        /**
+         * @param field 0-based field number.
+         * @return the field as a String.
+         */
+        public String text(int field) {
+            byte[] bytes = new byte[fieldEnd[check(field)] - fieldStart[field]];
+            for (int i = 0; i < bytes.length; i++) bytes[i] = buf.get(fieldStart[field] + i);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * @param field 0-based field number.
+         * @return a hash of the field bytes, for looking fields up without decoding them.
+         */
+        public int hash(int field) {
+            int h = 0;
+            for (int i = fieldStart[check(field)]; i < fieldEnd[field]; i++) h = 31 * h + buf.get(i);
+            return h;
+        }
+
+        /**
+         * @param field 0-based field number.
+         * @param bytes bytes to compare with.
+         * @return true if the field holds exactly the given bytes.
+         */
+        public boolean equalsBytes(int field, byte[] bytes) {
+            int start = fieldStart[check(field)];
+            if (fieldEnd[field] - start != bytes.length) return false;
+            for (int i = 0; i < bytes.length; i++) {
+                if (buf.get(start + i) != bytes[i]) return false;
+            }
+            return true;
+        }
+
+        /**
+         * @return the whole line as a String.
+         */
+        public String line() {
+            byte[] bytes = new byte[lineEnd - lineStart];
+            for (int i = 0; i < bytes.length; i++) bytes[i] = buf.get(lineStart + i);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        private int check(int field) {
+            if (field < 0 || field >= fields) {
+                throw new IllegalArgumentException("Line at offset " + lineOffset() + " has no field " + (field + 1));
+            }
+            return field;
+        }
+
+        private NumberFormatException error(int field) {
+            return new NumberFormatException("Not a number at offset " + lineOffset() + ", field " + (field + 1) + ": " + text(field));
+        }
+    }
+}
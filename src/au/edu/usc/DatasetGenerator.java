@@ -0,0 +1,277 @@
+package au.edu.usc;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Writes synthetic city-pairs csv files in the same 12 columns as dom_citypairs_web.csv, for scale testing the sorts
+ * and the itinerary explorer with far more records than the real data has.
+ * <p>
+ * A generator is fixed by its seed: it places its cities at random points inside Australia's bounding box and
+ * joins them with routes, starting with a ring through every city so that each city can reach every other.
+ * Each route gets a distance (the great-circle distance plus up to 3% for the flight path) and typical monthly
+ * seats and load factor. Rows are then written one at a time, so any number of them can be written in constant
+ * memory; each names a route, a month and that month's traffic, with the derived columns (RPKs, ASKs and the
+ * load factor) consistent with the rest of the row. The same seed, sizes and distribution always give the
+ * same file.
+ *
+ * @author Joseph Thurlow
+ */
+public class DatasetGenerator {
+
+    /**
+     * How the rows are spread over the routes, which decides the shape of each sorted column.
+     */
+    public enum Distribution {
+        /** Each row takes a route at random, so every route has about as many rows. */
+        UNIFORM,
+        /** Routes are taken with Zipf-distributed popularity, so a few routes fill most rows with repeated keys. */
+        ZIPF,
+        /** Every route gets an equal share of rows, written in order of distance, so that column comes pre-sorted. */
+        SORTED
+    }
+
+    /** The header of the real city-pairs files. */
+    public static final String HEADER = "City1,City2,Month,Passenger_Trips,Aircraft_Trips,Passenger_Load_Factor,"
+            + "Distance_GC_(km),RPKs,ASKs,Seats,Year,Month_num";
+
+    private static final String[] MONTH_NAMES =
+            {"Jan", "Feb", "Mar", "Apr", "May", "Jun", "Jul", "Aug", "Sep", "Oct", "Nov", "Dec"};
+    // Australia's bounding box, in degrees.
+    private static final double MIN_LAT = -43.5, MAX_LAT = -10.5, MIN_LON = 113.5, MAX_LON = 153.5;
+
+    private final long seed;
+    private final Distribution distribution;
+    private final int firstMonth;
+    private final int monthCount;
+    private final String[] cities;
+    private final double[] latitudes;
+    private final double[] longitudes;
+    // Each route's cities, distance, typical monthly seats, load factor and seats per aircraft.
+    private final int[] from;
+    private final int[] to;
+    private final int[] distances;
+    private final int[] seats;
+    private final double[] loadFactors;
+    private final int[] aircraftSeats;
+    // Cumulative route weights for ZIPF, and the route order for SORTED.
+    private double[] cumulative;
+    private int[] byDistance;
+
+    /**
+     * Creates the cities and routes of a generator.
+     *
+     * @param seed seed for every random choice.
+     * @param cityCount number of cities, at least 2.
+     * @param routeCount number of routes, from cityCount to cityCount * (cityCount - 1).
+     * @param distribution how rows are spread over the routes.
+     * @param firstYearMonth the first month of the rows, as yyyymm.
+     * @param monthCount number of months the rows cover.
+     */
+    public DatasetGenerator(long seed, int cityCount, int routeCount, Distribution distribution,
+                            int firstYearMonth, int monthCount) {
+        if (cityCount < 2) throw new IllegalArgumentException("At least 2 cities are needed: " + cityCount);
+        if (routeCount < cityCount || routeCount > (long) cityCount * (cityCount - 1)) {
+            throw new IllegalArgumentException("Route count must be from " + cityCount + " to "
+                    + (long) cityCount * (cityCount - 1) + ": " + routeCount);
+        }
+        int month = firstYearMonth % 100;
+        if (firstYearMonth <= 0 || month < 1 || month > 12) {
+            throw new IllegalArgumentException("Not a yyyymm month: " + firstYearMonth);
+        }
+        if (monthCount < 1) throw new IllegalArgumentException("Month count must be positive: " + monthCount);
+        this.seed = seed;
+        this.distribution = distribution;
+        this.firstMonth = firstYearMonth / 100 * 12 + month - 1;
+        this.monthCount = monthCount;
+
+        SplittableRandom random = new SplittableRandom(seed);
+        cities = new String[cityCount];
+        latitudes = new double[cityCount];
+        longitudes = new double[cityCount];
+        String format = "CITY %0" + String.valueOf(cityCount).length() + "d";
+        for (int i = 0; i < cityCount; i++) {
+            cities[i] = String.format(format, i + 1);
+            latitudes[i] = MIN_LAT + random.nextDouble() * (MAX_LAT - MIN_LAT);
+            longitudes[i] = MIN_LON + random.nextDouble() * (MAX_LON - MIN_LON);
+        }
+
+        from = new int[routeCount];
+        to = new int[routeCount];
+        Set<Long> taken = new HashSet<>();
+        for (int r = 0; r < routeCount; r++) {
+            int u, v;
+            if (r < cityCount) {
+                u = r;
+                v = (r + 1) % cityCount;
+            } else {
+                do {
+                    u = random.nextInt(cityCount);
+                    v = random.nextInt(cityCount);
+                } while (u == v || taken.contains((long) u << 32 | v));
+            }
+            taken.add((long) u << 32 | v);
+            from[r] = u;
+            to[r] = v;
+        }
+
+        distances = new int[routeCount];
+        seats = new int[routeCount];
+        loadFactors = new double[routeCount];
+        aircraftSeats = new int[routeCount];
+        for (int r = 0; r < routeCount; r++) {
+            double km = CityCoordinates.haversine(Math.toRadians(latitudes[from[r]]),
+                    Math.toRadians(longitudes[from[r]]), Math.toRadians(latitudes[to[r]]),
+                    Math.toRadians(longitudes[to[r]]));
+            distances[r] = Math.max(1, (int) Math.round(km * (1 + 0.03 * random.nextDouble())));
+            // Seats are spread over several orders of magnitude, as on the real routes.
+            seats[r] = (int) Math.round(Math.exp(6 + 6 * random.nextDouble()));
+            loadFactors[r] = 55 + 35 * random.nextDouble();
+            aircraftSeats[r] = 30 + random.nextInt(160);
+        }
+
+        if (distribution == Distribution.ZIPF) {
+            // Popularity ranks are shuffled so popular routes are not also the first or shortest ones.
+            int[] rank = new int[routeCount];
+            for (int r = 0; r < routeCount; r++) rank[r] = r;
+            for (int r = routeCount - 1; r > 0; r--) {
+                int j = random.nextInt(r + 1);
+                int t = rank[r];
+                rank[r] = rank[j];
+                rank[j] = t;
+            }
+            cumulative = new double[routeCount];
+            double total = 0;
+            for (int r = 0; r < routeCount; r++) cumulative[r] = total += 1.0 / (rank[r] + 1);
+        } else if (distribution == Distribution.SORTED) {
+            long[] keys = new long[routeCount];
+            byDistance = new int[routeCount];
+            for (int r = 0; r < routeCount; r++) {
+                keys[r] = distances[r];
+                byDistance[r] = r;
+            }
+            new RadixSort().sort(keys, byDistance);
+        }
+    }
+
+    public int cityCount() {
+        return cities.length;
+    }
+
+    public int routeCount() {
+        return from.length;
+    }
+
+    /**
+     * Writes a csv file of the given number of rows.
+     *
+     * @param file file to write.
+     * @param rows number of rows after the header.
+     */
+    public void write(File file, long rows) throws IOException {
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8),
+                1 << 20)) {
+            write(out, rows);
+        }
+    }
+
+    /**
+     * Writes the header and the given number of rows.
+     *
+     * @param out where the csv text goes; it is not closed.
+     * @param rows number of rows after the header.
+     */
+    public void write(Writer out, long rows) throws IOException {
+        if (rows < 0) throw new IllegalArgumentException("Row count must not be negative: " + rows);
+        // Rows have their own random stream, so the routes are the same whatever rows are written.
+        SplittableRandom random = new SplittableRandom(seed).split();
+        StringBuilder line = new StringBuilder(128);
+        out.write(HEADER);
+        out.write('\n');
+        int routeCount = from.length;
+        for (long i = 0; i < rows; i++) {
+            int route;
+            switch (distribution) {
+                case ZIPF:
+                    int r = Arrays.binarySearch(cumulative, random.nextDouble() * cumulative[routeCount - 1]);
+                    route = Math.min(routeCount - 1, r < 0 ? -r - 1 : r);
+                    break;
+                case SORTED:
+                    route = byDistance[(int) (i * routeCount / rows)];
+                    break;
+                default:
+                    route = random.nextInt(routeCount);
+            }
+            int month = firstMonth + random.nextInt(monthCount);
+            line.setLength(0);
+            appendRow(line, route, month, random);
+            out.append(line);
+        }
+    }
+
+    // Appends one row: the route's usual traffic varied by up to 25% either way for the month.
+    private void appendRow(StringBuilder line, int route, int month, SplittableRandom random) {
+        long monthSeats = Math.max(1, Math.round(seats[route] * (0.75 + 0.5 * random.nextDouble())));
+        double loadFactor = Math.min(100, loadFactors[route] * (0.9 + 0.2 * random.nextDouble()));
+        long passengers = Math.round(monthSeats * loadFactor / 100);
+        long aircraftTrips = (monthSeats + aircraftSeats[route] - 1) / aircraftSeats[route];
+        int distance = distances[route];
+        int year = month / 12, monthNumber = month % 12 + 1;
+
+        line.append(cities[from[route]]).append(',').append(cities[to[route]]).append(',');
+        line.append(MONTH_NAMES[monthNumber - 1]).append('-');
+        if (year % 100 < 10) line.append('0');
+        line.append(year % 100).append(',');
+        line.append(passengers).append(',').append(aircraftTrips).append(',');
+        // One decimal place, as in the real files.
+        long tenths = Math.round(1000.0 * passengers / monthSeats);
+        line.append(tenths / 10).append('.').append(tenths % 10).append(',');
+        line.append(distance).append(',');
+        line.append(passengers * distance).append(',').append(monthSeats * distance).append(',');
+        line.append(monthSeats).append(',').append(year).append(',').append(monthNumber).append('\n');
+    }
+
+    /**
+     * Writes the cities' coordinates in the form read by {@link CityCoordinates}, so A* can be used on the
+     * generated routes. The explorer looks for them in city_coordinates.csv next to the records.
+     *
+     * @param file file to write.
+     */
+    public void writeCoordinates(File file) throws IOException {
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            out.write("City,Latitude,Longitude\n");
+            for (int i = 0; i < cities.length; i++) {
+                out.write(String.format(Locale.ROOT, "%s,%.4f,%.4f%n", cities[i], latitudes[i], longitudes[i]));
+            }
+        }
+    }
+
+    /**
+     * Writes a synthetic dataset.
+     * Usage: DatasetGenerator output.csv [rows] [cities] [routes] [seed] [UNIFORM|ZIPF|SORTED] [coordinates.csv]
+     * <p>
+     * The defaults are 1000000 rows over 200 cities and 2000 routes with seed 1 and uniform rows, covering
+     * January 1984 to December 2021 like the real records.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: DatasetGenerator output.csv [rows] [cities] [routes] [seed] "
+                    + "[UNIFORM|ZIPF|SORTED] [coordinates.csv]");
+            return;
+        }
+        long rows = args.length > 1 ? Long.parseLong(args[1]) : 1_000_000;
+        int cityCount = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+        int routeCount = args.length > 3 ? Integer.parseInt(args[3]) : 10 * cityCount;
+        long seed = args.length > 4 ? Long.parseLong(args[4]) : 1;
+        Distribution distribution = args.length > 5
+                ? Distribution.valueOf(args[5].toUpperCase()) : Distribution.UNIFORM;
+
+        long start = System.currentTimeMillis();
+        DatasetGenerator generator = new DatasetGenerator(seed, cityCount, routeCount, distribution, 198401, 456);
+        generator.write(new File(args[0]), rows);
+        if (args.length > 6) generator.writeCoordinates(new File(args[6]));
+        System.out.println("Wrote " + rows + " rows over " + cityCount + " cities and " + routeCount + " routes to "
+                + args[0] + " in " + (System.currentTimeMillis() - start) + "ms");
+    }
+}
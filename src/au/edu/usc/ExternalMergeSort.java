@@ -0,0 +1,504 @@
+package au.edu.usc;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Merge sort for csv files too large to load into memory.
+ * <p>
+ * The file is read in chunks of a fixed number of rows. Each chunk's keys are sorted in memory with
+ * {@link MergeSort} and spilled to a temporary run file as fixed-size binary records (the key, the row number,
+ * and the offset and length of the row's line in the csv). The runs are then merged through a heap, at most
+ * {@value #MAX_FAN_IN} at a time, into one sorted file; equal keys keep their row order, as in MergeSort. While
+ * that file is written, the position where each distinct key starts is written to a second file, which is the
+ * rank index. Rank lookups read only those two files and the lines they print, so memory use is set by the
+ * chunk size, not by the size of the csv.
+ * <p>
+ * Ranks and printed rows match {@link RecordSorter#get(int)}. Text columns are keyed by the alphabetical
+ * position of each value among every text value in the file, as in {@link FlightTable#keys(int)}; finding those
+ * positions takes an extra pass, and memory for the distinct text values.
+ *
+ * @author Joseph Thurlow
+ */
+public class ExternalMergeSort implements Closeable {
+
+    // Bytes in a record: the key, the row number, and the offset and length of the line.
+    private static final int RECORD = 8 + 8 + 8 + 4;
+    // Runs merged at once; each one has a buffer of BUFFER bytes.
+    private static final int MAX_FAN_IN = 64;
+    private static final int BUFFER = RECORD << 11;
+
+    private final int chunkRows;
+    private final File tempDir;
+
+    private String columnName;
+    private FlightTable.Type[] types;
+    private CsvScanner source;
+    private File sorted;
+    private File ranks;
+    private FileChannel sortedChannel;
+    private FileChannel ranksChannel;
+    private long rowCount;
+    private long rankCount;
+
+    /**
+     * Creates an external sort that sorts 1048576 rows at a time and keeps its runs in the system temp directory.
+     */
+    public ExternalMergeSort() {
+        this(1 << 20, new File(System.getProperty("java.io.tmpdir")));
+    }
+
+    /**
+     * Creates an external sort with the given chunk size. Sorting a chunk takes about 44 bytes per row.
+     *
+     * @param chunkRows rows read and sorted in memory at a time.
+     * @param tempDir directory for the run files.
+     */
+    public ExternalMergeSort(int chunkRows, File tempDir) {
+        if (chunkRows < 1) throw new IllegalArgumentException("Chunk size must be positive: " + chunkRows);
+        this.chunkRows = chunkRows;
+        this.tempDir = tempDir;
+    }
+
+    /**
+     * Sorts the records of a csv file by the given column. The results of an earlier sort are deleted.
+     *
+     * @param file CSV file to sort.
+     * @param column 1-based column to sort by.
+     */
+    public void sortRecords(String file, int column) throws IOException {
+        close();
+        long start = System.currentTimeMillis();
+        // The runs spilled from the csv, and those written by every intermediate merge level.
+        List<File> runs = new ArrayList<>();
+        List<File> merges = new ArrayList<>();
+        boolean done = false;
+        try {
+            source = new CsvScanner(file);
+            String[] names = source.header();
+            if (column < 1 || column > names.length) {
+                throw new IllegalArgumentException("Column " + column + " is out of range 1.." + names.length);
+            }
+            columnName = names[column - 1];
+            types = FlightTable.columnTypes(source);
+            Map<String, Integer> order = types[column - 1] == FlightTable.Type.TEXT ? textOrder() : null;
+
+            Chunk chunk = new Chunk(column - 1, order, runs);
+            try {
+                source.scan(chunk);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            chunk.spill();
+
+            // Merges groups of runs until one merge can take them all, deleting each group once it is merged.
+            List<File> level = runs;
+            while (level.size() > MAX_FAN_IN) {
+                List<File> merged = new ArrayList<>();
+                for (int i = 0; i < level.size(); i += MAX_FAN_IN) {
+                    List<File> group = level.subList(i, Math.min(i + MAX_FAN_IN, level.size()));
+                    File run = tempFile("run");
+                    merges.add(run);
+                    merged.add(run);
+                    merge(group, run, null);
+                    for (File input : group) input.delete();
+                }
+                level = merged;
+            }
+            sorted = tempFile("sorted");
+            ranks = tempFile("ranks");
+            merge(level, sorted, ranks);
+            sortedChannel = FileChannel.open(sorted.toPath(), StandardOpenOption.READ);
+            ranksChannel = FileChannel.open(ranks.toPath(), StandardOpenOption.READ);
+            rankCount = ranksChannel.size() / 8 - 1;
+            done = true;
+        } finally {
+            for (File run : runs) run.delete();
+            for (File run : merges) run.delete();
+            if (!done) close();
+        }
+        long result = System.currentTimeMillis() - start;
+        System.out.println("\nRuntime of " + this.getClass().getName() + " on " + columnName + ": " + result + "ms\n");
+    }
+
+    // Alphabetical position of every value in the text columns.
+    private Map<String, Integer> textOrder() throws IOException {
+        Set<String> values = new HashSet<>();
+        source.scan(row -> {
+            for (int c = 0; c < types.length && c < row.fieldCount(); c++) {
+                if (types[c] == FlightTable.Type.TEXT) values.add(row.text(c));
+            }
+            return true;
+        });
+        String[] sortedValues = values.toArray(new String[0]);
+        Arrays.sort(sortedValues);
+        Map<String, Integer> order = new HashMap<>();
+        for (int i = 0; i < sortedValues.length; i++) order.put(sortedValues[i], i);
+        return order;
+    }
+
+    /**
+     * Collects the keys of one chunk of rows and spills them as a sorted run when the chunk is full.
+     */
+    private class Chunk implements CsvScanner.RowVisitor {
+        private final int field;
+        private final Map<String, Integer> order;
+        private final List<File> runs;
+        private final double[] keys = new double[chunkRows];
+        private final long[] offsets = new long[chunkRows];
+        private final int[] lengths = new int[chunkRows];
+        private int count;
+        private long firstRow;
+
+        Chunk(int field, Map<String, Integer> order, List<File> runs) {
+            this.field = field;
+            this.order = order;
+            this.runs = runs;
+        }
+
+        @Override
+        public boolean row(CsvScanner.Row row) {
+            if (row.fieldCount() < types.length) {
+                throw new IllegalArgumentException("Line at offset " + row.lineOffset() + " has "
+                        + row.fieldCount() + " columns, expected " + types.length);
+            }
+            keys[count] = order != null ? order.get(row.text(field)) : row.parseDouble(field);
+            offsets[count] = row.lineOffset();
+            lengths[count] = row.length();
+            if (++count == chunkRows) {
+                try {
+                    spill();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return true;
+        }
+
+        // Sorts the chunk and writes it out as a run.
+        void spill() throws IOException {
+            if (count == 0) return;
+            double[] runKeys = Arrays.copyOf(keys, count);
+            int[] idx = new int[count];
+            for (int i = 0; i < count; i++) idx[i] = i;
+            new MergeSort().sort(runKeys, idx);
+
+            File run = tempFile("run");
+            runs.add(run);
+            try (RunWriter out = new RunWriter(run)) {
+                for (int i = 0; i < count; i++) {
+                    out.write(runKeys[i], firstRow + idx[i], offsets[idx[i]], lengths[idx[i]]);
+                }
+            }
+            firstRow += count;
+            count = 0;
+        }
+    }
+
+    /**
+     * Merges sorted runs into one, taking the lowest row first among equal keys.
+     *
+     * @param inputs the runs to merge.
+     * @param output file for the merged run.
+     * @param index file for the position of each distinct key followed by the record count, or null.
+     */
+    private void merge(List<File> inputs, File output, File index) throws IOException {
+        PriorityQueue<RunReader> heap = new PriorityQueue<>(Math.max(inputs.size(), 1), (a, b) ->
+                a.key < b.key ? -1 : a.key > b.key ? 1 : Long.compare(a.row, b.row));
+        List<RunReader> readers = new ArrayList<>();
+        try (RunWriter out = new RunWriter(output); RunWriter positions = index == null ? null : new RunWriter(index)) {
+            for (File input : inputs) {
+                RunReader reader = new RunReader(input);
+                readers.add(reader);
+                if (reader.next()) heap.add(reader);
+            }
+            long position = 0;
+            double last = 0;
+            while (!heap.isEmpty()) {
+                RunReader reader = heap.poll();
+                if (positions != null && (position == 0 || reader.key != last)) positions.writeLong(position);
+                out.write(reader.key, reader.row, reader.offset, reader.length);
+                last = reader.key;
+                position++;
+                if (reader.next()) heap.add(reader);
+            }
+            if (positions != null) positions.writeLong(position);
+            rowCount = position;
+        } finally {
+            for (RunReader reader : readers) reader.close();
+        }
+    }
+
+    private File tempFile(String kind) throws IOException {
+        return File.createTempFile("flights-" + kind, ".bin", tempDir);
+    }
+
+    /**
+     * @return the number of sorted rows.
+     */
+    public long rowCount() {
+        return rowCount;
+    }
+
+    /**
+     * @return the number of distinct keys, which is also the lowest rank.
+     */
+    public long rankCount() {
+        return rankCount;
+    }
+
+    /**
+     * @param rank 1-based rank.
+     * @return true if some rows have the rank.
+     */
+    public boolean hasRank(int rank) {
+        return rank >= 1 && rank <= rankCount;
+    }
+
+    /**
+     * @param rank 1-based rank.
+     * @return the key shared by the rows with the rank.
+     */
+    public double value(int rank) throws IOException {
+        return key(runStart(run(rank)));
+    }
+
+    /**
+     * @param rank 1-based rank.
+     * @return the number of rows with the rank.
+     */
+    public long count(int rank) throws IOException {
+        long run = run(rank);
+        return runStart(run + 1) - runStart(run);
+    }
+
+    /**
+     * Finds the rank of a key with a binary search of the rank index.
+     *
+     * @param value the key to look up.
+     * @return its 1-based rank, or -1 if no row has the key.
+     */
+    public long rankOf(double value) throws IOException {
+        long lo = 0, hi = rankCount - 1;
+        while (lo <= hi) {
+            long mid = (lo + hi) >>> 1;
+            double key = key(runStart(mid));
+            if (key < value) lo = mid + 1;
+            else if (key > value) hi = mid - 1;
+            else return rankCount - mid;
+        }
+        return -1;
+    }
+
+    /**
+     * Prints the flight records with the given rank, in the same form as {@link RecordSorter#get(int)}.
+     *
+     * @param rank Specifies the rank of the records desired; 0 prints every key.
+     */
+    public void get(int rank) throws IOException {
+        if (sorted == null) {
+            System.out.println("Records must be imported and sorted before rank is called!");
+            return;
+        }
+        if (rank == 0) {
+            printPairs();
+        } else if (rank < 0) {
+            System.out.println("ERROR: Invalid rank input.");
+        } else {
+            System.out.println("RECORDS for " + columnName + " at RANK " + rank + ":");
+            if (!hasRank(rank)) {
+                System.out.println("No RECORDS found for " + columnName + " at RANK " + rank + "!");
+                return;
+            }
+            long run = run(rank);
+            long from = runStart(run), to = runStart(run + 1);
+            // Walks the run from its end, a buffer of records at a time, as RecordSorter.get does.
+            ByteBuffer buf = ByteBuffer.allocate(BUFFER);
+            CsvScanner.LineReader lines = source.lines();
+            for (long end = to; end > from; ) {
+                long begin = Math.max(from, end - BUFFER / RECORD);
+                read(sortedChannel, buf, begin * RECORD, (int) (end - begin) * RECORD);
+                for (int i = (int) (end - begin) - 1; i >= 0; i--) {
+                    long row = buf.getLong(i * RECORD + 8);
+                    long offset = buf.getLong(i * RECORD + 16);
+                    int length = buf.getInt(i * RECORD + 24);
+                    System.out.println("ROW " + (row + 2) + ": " + format(lines.read(offset, length), types));
+                }
+                end = begin;
+            }
+        }
+    }
+
+    // Prints the sorted keys as {row, value} pairs, streaming them from the sorted file.
+    private void printPairs() throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(BUFFER);
+        StringBuilder sb = new StringBuilder("[");
+        for (long begin = 0; begin < rowCount; begin += BUFFER / RECORD) {
+            int records = (int) Math.min(BUFFER / RECORD, rowCount - begin);
+            read(sortedChannel, buf, begin * RECORD, records * RECORD);
+            for (int i = 0; i < records; i++) {
+                if (begin + i > 0) sb.append(", ");
+                sb.append('{').append(buf.getLong(i * RECORD + 8)).append(", ").append(buf.getDouble(i * RECORD))
+                        .append('}');
+            }
+            System.out.print(sb);
+            sb.setLength(0);
+        }
+        System.out.println(sb.append(']'));
+    }
+
+    // Formats a line read back from the csv as FlightTable.row does.
+    static String format(CsvScanner.Row row, FlightTable.Type[] types) {
+        StringBuilder sb = new StringBuilder(row.length());
+        for (int c = 0; c < types.length; c++) {
+            if (c > 0) sb.append(',');
+            if (types[c] == FlightTable.Type.TEXT) {
+                sb.append(row.text(c));
+            } else if (types[c] == FlightTable.Type.DECIMAL || row.isDecimal(c)) {
+                sb.append(FlightTable.format(row.parseDouble(c)));
+            } else {
+                sb.append(row.parseLong(c));
+            }
+        }
+        return sb.toString();
+    }
+
+    // Position in the index of the run of keys with the given rank.
+    private long run(int rank) {
+        if (!hasRank(rank)) throw new IllegalArgumentException("Rank " + rank + " is out of range 1.." + rankCount);
+        return rankCount - rank;
+    }
+
+    private long runStart(long run) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(8);
+        read(ranksChannel, buf, run * 8, 8);
+        return buf.getLong(0);
+    }
+
+    private double key(long position) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(8);
+        read(sortedChannel, buf, position * RECORD, 8);
+        return buf.getDouble(0);
+    }
+
+    // Fills the start of the buffer with the given bytes of the channel.
+    private static void read(FileChannel channel, ByteBuffer buf, long position, int bytes) throws IOException {
+        buf.clear().limit(bytes);
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, position + buf.position()) < 0) throw new EOFException("Sorted file is truncated");
+        }
+    }
+
+    /**
+     * Deletes the sorted file and rank index and closes the csv.
+     */
+    @Override
+    public void close() throws IOException {
+        if (sortedChannel != null) sortedChannel.close();
+        if (ranksChannel != null) ranksChannel.close();
+        if (source != null) source.close();
+        if (sorted != null) sorted.delete();
+        if (ranks != null) ranks.delete();
+        sortedChannel = ranksChannel = null;
+        source = null;
+        sorted = ranks = null;
+        rowCount = rankCount = 0;
+    }
+
+    /**
+     * Buffered writer of run records and index positions.
+     */
+    private static final class RunWriter implements Closeable {
+        private final FileChannel channel;
+        private final ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER);
+
+        RunWriter(File file) throws IOException {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        }
+
+        void write(double key, long row, long offset, int length) throws IOException {
+            if (buf.remaining() < RECORD) drain();
+            buf.putDouble(key).putLong(row).putLong(offset).putInt(length);
+        }
+
+        void writeLong(long value) throws IOException {
+            if (buf.remaining() < 8) drain();
+            buf.putLong(value);
+        }
+
+        private void drain() throws IOException {
+            buf.flip();
+            while (buf.hasRemaining()) channel.write(buf);
+            buf.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                drain();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Buffered reader of a run, holding its current record.
+     */
+    private static final class RunReader implements Closeable {
+        private final FileChannel channel;
+        private final ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER);
+        double key;
+        long row;
+        long offset;
+        int length;
+
+        RunReader(File file) throws IOException {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            buf.flip();
+        }
+
+        /**
+         * @return true if the next record was read, false at the end of the run.
+         */
+        boolean next() throws IOException {
+            if (buf.remaining() < RECORD) {
+                buf.compact();
+                while (buf.hasRemaining() && channel.read(buf) > 0) {
+                    // Keeps reading until the buffer is full or the run ends.
+                }
+                buf.flip();
+                if (buf.remaining() < RECORD) return false;
+            }
+            key = buf.getDouble();
+            row = buf.getLong();
+            offset = buf.getLong();
+            length = buf.getInt();
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    /**
+     * Sorts a csv file by one column and prints the records with some ranks.
+     * Usage: ExternalMergeSort file.csv column [rank...]
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Usage: ExternalMergeSort file.csv column [rank...]");
+            return;
+        }
+        try (ExternalMergeSort sort = new ExternalMergeSort()) {
+            sort.sortRecords(args[0], Integer.parseInt(args[1]));
+            if (args.length == 2) sort.get(1);
+            for (int i = 2; i < args.length; i++) sort.get(Integer.parseInt(args[i]));
+        }
+    }
+}
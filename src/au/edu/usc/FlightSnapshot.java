@@ -0,0 +1,217 @@
+package au.edu.usc;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Binary snapshot of a parsed {@link FlightTable}, so later runs can read the columns back instead of
+ * parsing the csv again. Reading maps the file and bulk-copies each column into the table's heap arrays: it skips
+ * the csv parsing, not the copy, so a loaded table takes the same heap as a parsed one.
+ * <p>
+ * Layout (big-endian): the magic number and format version, the size and modification time of the source csv,
+ * the column and row counts, each column's type and name, the text dictionary, then every column as a
+ * contiguous array of ints, longs or doubles padded to 8 bytes. The file ends with a CRC32 of everything
+ * before it. The route graph is compiled from the city and distance columns, so it needs no section of its own.
+ *
+ * @author Joseph Thurlow
+ */
+public class FlightSnapshot {
+
+    private static final int MAGIC = 0x464C5453; // "FLTS"
+    private static final int VERSION = 1;
+    private static final String EXTENSION = ".snapshot";
+
+    private FlightSnapshot() {
+    }
+
+    /**
+     * @param csv the source csv file.
+     * @return the snapshot file kept next to it.
+     */
+    public static File snapshotFile(File csv) {
+        return new File(csv.getPath() + EXTENSION);
+    }
+
+    /**
+     * Writes the table to a snapshot file. The file is written under a temporary name and then moved into
+     * place, so a reader never sees a partly written snapshot.
+     *
+     * @param table the parsed table.
+     * @param snapshot file to write.
+     * @param csv the csv the table was parsed from, recorded so stale snapshots can be detected.
+     */
+    public static void write(FlightTable table, File snapshot, File csv) throws IOException {
+        byte[][] names = new byte[table.columnCount()][];
+        long size = 4 + 4 + 8 + 8 + 4 + 4;
+        for (int c = 1; c <= names.length; c++) {
+            names[c - 1] = table.columnName(c).getBytes(StandardCharsets.UTF_8);
+            size += 1 + 4 + names[c - 1].length;
+        }
+        byte[][] dictionary = new byte[table.dictionarySize()][];
+        size += 4;
+        for (int i = 0; i < dictionary.length; i++) {
+            dictionary[i] = table.decode(i).getBytes(StandardCharsets.UTF_8);
+            size += 4 + dictionary[i].length;
+        }
+        size = pad(size);
+        long dataStart = size;
+        for (int c = 1; c <= names.length; c++) {
+            size += pad((long) table.rowCount() * (table.columnType(c) == FlightTable.Type.TEXT ? 4 : 8));
+        }
+        size += 8;
+        if (size > Integer.MAX_VALUE) throw new IOException("Table is too large for a snapshot: " + size + " bytes");
+
+        Path dir = snapshot.getAbsoluteFile().getParentFile().toPath();
+        Path tmp = Files.createTempFile(dir, snapshot.getName(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                buf.putInt(MAGIC).putInt(VERSION);
+                buf.putLong(csv.length()).putLong(csv.lastModified());
+                buf.putInt(names.length).putInt(table.rowCount());
+                for (int c = 1; c <= names.length; c++) {
+                    buf.put((byte) table.columnType(c).ordinal());
+                    buf.putInt(names[c - 1].length).put(names[c - 1]);
+                }
+                buf.putInt(dictionary.length);
+                for (byte[] value : dictionary) buf.putInt(value.length).put(value);
+
+                buf.position((int) dataStart);
+                for (int c = 1; c <= names.length; c++) {
+                    switch (table.columnType(c)) {
+                        case TEXT: buf.asIntBuffer().put(table.codeColumn(c), 0, table.rowCount()); break;
+                        case INTEGER: buf.asLongBuffer().put(table.longColumn(c), 0, table.rowCount()); break;
+                        default: buf.asDoubleBuffer().put(table.doubleColumn(c), 0, table.rowCount());
+                    }
+                    int bytes = table.rowCount() * (table.columnType(c) == FlightTable.Type.TEXT ? 4 : 8);
+                    buf.position((int) (buf.position() + pad(bytes)));
+                }
+
+                buf.putLong(checksum(buf, size - 8));
+                buf.force();
+            }
+            Files.move(tmp, snapshot.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Writes a snapshot, reporting rather than throwing on failure since the csv can always be parsed again.
+     *
+     * @param table the parsed table.
+     * @param snapshot file to write.
+     * @param csv the csv the table was parsed from.
+     */
+    static void tryWrite(FlightTable table, File snapshot, File csv) {
+        try {
+            write(table, snapshot, csv);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Could not write snapshot " + snapshot + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reads a snapshot file. The file is memory-mapped to check its checksum and decode it, and every column is
+     * copied into a new array, so the table does not depend on the mapping once this returns. The cost is one
+     * sequential read of the file instead of parsing every csv field.
+     *
+     * @param snapshot file to read.
+     * @return the table stored in it.
+     * @throws IOException if the file cannot be read, is not a snapshot, has another version or fails its checksum.
+     */
+    public static FlightTable read(File snapshot) throws IOException {
+        try (FileChannel channel = FileChannel.open(snapshot.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < 40 || size > Integer.MAX_VALUE) throw new IOException("Not a snapshot: " + snapshot);
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (buf.getInt() != MAGIC) throw new IOException("Not a snapshot: " + snapshot);
+            int version = buf.getInt();
+            if (version != VERSION) throw new IOException("Unsupported snapshot version " + version + ": " + snapshot);
+            if (checksum(buf, size - 8) != buf.getLong((int) size - 8)) {
+                throw new IOException("Snapshot checksum mismatch: " + snapshot);
+            }
+
+            buf.position(24);
+            int columns = buf.getInt(), rows = buf.getInt();
+            String[] names = new String[columns];
+            FlightTable.Type[] types = new FlightTable.Type[columns];
+            for (int c = 0; c < columns; c++) {
+                types[c] = FlightTable.Type.values()[buf.get()];
+                names[c] = string(buf);
+            }
+            int dictionarySize = buf.getInt();
+            List<String> dictionary = new ArrayList<>(dictionarySize);
+            for (int i = 0; i < dictionarySize; i++) dictionary.add(string(buf));
+
+            buf.position((int) pad(buf.position()));
+            int[][] codes = new int[columns][];
+            long[][] longs = new long[columns][];
+            double[][] doubles = new double[columns][];
+            for (int c = 0; c < columns; c++) {
+                switch (types[c]) {
+                    case TEXT: buf.asIntBuffer().get(codes[c] = new int[rows]); break;
+                    case INTEGER: buf.asLongBuffer().get(longs[c] = new long[rows]); break;
+                    default: buf.asDoubleBuffer().get(doubles[c] = new double[rows]);
+                }
+                int bytes = rows * (types[c] == FlightTable.Type.TEXT ? 4 : 8);
+                buf.position((int) (buf.position() + pad(bytes)));
+            }
+            return new FlightTable(names, types, rows, codes, longs, doubles, dictionary);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            throw new IOException("Corrupt snapshot: " + snapshot, e);
+        }
+    }
+
+    /**
+     * Reads a snapshot if it exists and was written from the csv as it is now.
+     *
+     * @param snapshot file to read.
+     * @param csv the source csv file.
+     * @return the table, or null if the csv has to be parsed.
+     */
+    static FlightTable readIfCurrent(File snapshot, File csv) {
+        if (!snapshot.isFile()) return null;
+        try (FileChannel channel = FileChannel.open(snapshot.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer head = ByteBuffer.allocate(24);
+            channel.read(head, 0);
+            head.flip();
+            if (head.remaining() < 24 || head.getInt() != MAGIC || head.getInt() != VERSION) return null;
+            if (head.getLong() != csv.length() || head.getLong() != csv.lastModified()) return null;
+        } catch (IOException e) {
+            return null;
+        }
+        try {
+            return read(snapshot);
+        } catch (IOException e) {
+            System.err.println("Ignoring snapshot " + snapshot + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static long checksum(MappedByteBuffer buf, long length) {
+        CRC32 crc = new CRC32();
+        ByteBuffer data = buf.duplicate();
+        data.position(0).limit((int) length);
+        crc.update(data);
+        return crc.getValue();
+    }
+
+    private static String string(ByteBuffer buf) {
+        byte[] bytes = new byte[buf.getInt()];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static long pad(long size) {
+        return (size + 7) & ~7L;
+    }
+}
@@ -0,0 +1,646 @@
+package au.edu.usc;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Column-oriented store of the city-pairs csv files.
+ * Numeric columns are held in primitive arrays and text columns (city names, months) are dictionary-encoded,
+ * so a file is parsed once and can then be sorted by any column without touching the csv again.
+ *
+ * @author Joseph Thurlow
+ */
+public class FlightTable {
+
+    /** Storage type of a column. */
+    public enum Type { TEXT, INTEGER, DECIMAL }
+
+    // Tables already loaded, keyed by canonical file path.
+    private static final Map<String, FlightTable> loaded = new HashMap<>();
+    // Files smaller than this are parsed on the calling thread.
+    private static final long PARALLEL_BYTES = 1 << 20;
+
+    private final String[] columnNames;
+    private final Type[] types;
+    private final int rows;
+
+    // Exactly one of these is non-null for each column, depending on its type.
+    private final int[][] codes;
+    private final long[][] longs;
+    private final double[][] doubles;
+    // The column arrays may be longer than rows, with room for appended rows. Tables made by append share
+    // the arrays; filled is how many of their rows are taken, so only one table can append into the room.
+    private final AtomicInteger filled;
+
+    // Shared dictionary for every text column.
+    private final List<String> dictionary = new ArrayList<>();
+    private final Map<String, Integer> dictionaryCodes = new HashMap<>();
+    private int[] dictionaryOrder;
+
+    /**
+     * Joins the parsed parts of a file into one table, in file order.
+     * A column that was widened to decimal in any part is decimal in the table.
+     */
+    private FlightTable(String[] columnNames, Type[] types, List<Segment> segments) {
+        this.columnNames = columnNames;
+        this.types = types.clone();
+        int total = 0;
+        for (Segment seg : segments) {
+            total += seg.rows;
+            for (int c = 0; c < types.length; c++) {
+                if (seg.types[c] == Type.DECIMAL) this.types[c] = Type.DECIMAL;
+            }
+        }
+        rows = total;
+        filled = new AtomicInteger(rows);
+        codes = new int[types.length][];
+        longs = new long[types.length][];
+        doubles = new double[types.length][];
+
+        for (int c = 0; c < types.length; c++) {
+            switch (this.types[c]) {
+                case TEXT: codes[c] = new int[rows]; break;
+                case INTEGER: longs[c] = new long[rows]; break;
+                default: doubles[c] = new double[rows];
+            }
+        }
+
+        int offset = 0;
+        for (Segment seg : segments) {
+            // Local dictionary codes of the part are mapped to codes of the shared dictionary.
+            int[] remap = new int[seg.values.size()];
+            for (int i = 0; i < remap.length; i++) {
+                remap[i] = encode(new String(seg.values.get(i), StandardCharsets.UTF_8));
+            }
+            for (int c = 0; c < types.length; c++) {
+                switch (this.types[c]) {
+                    case TEXT:
+                        for (int r = 0; r < seg.rows; r++) codes[c][offset + r] = remap[seg.codes[c][r]];
+                        break;
+                    case INTEGER:
+                        System.arraycopy(seg.longs[c], 0, longs[c], offset, seg.rows);
+                        break;
+                    default:
+                        if (seg.doubles[c] != null) {
+                            System.arraycopy(seg.doubles[c], 0, doubles[c], offset, seg.rows);
+                        } else {
+                            for (int r = 0; r < seg.rows; r++) doubles[c][offset + r] = seg.longs[c][r];
+                        }
+                }
+            }
+            offset += seg.rows;
+        }
+    }
+
+    /**
+     * Wraps columns that were already decoded, e.g. from a {@link FlightSnapshot}. The arrays are not copied.
+     */
+    FlightTable(String[] columnNames, Type[] types, int rows, int[][] codes, long[][] longs, double[][] doubles,
+                List<String> dictionary) {
+        this(columnNames, types, rows, codes, longs, doubles, dictionary, new AtomicInteger(rows));
+    }
+
+    private FlightTable(String[] columnNames, Type[] types, int rows, int[][] codes, long[][] longs,
+                        double[][] doubles, List<String> dictionary, AtomicInteger filled) {
+        this.columnNames = columnNames;
+        this.types = types;
+        this.rows = rows;
+        this.codes = codes;
+        this.longs = longs;
+        this.doubles = doubles;
+        this.filled = filled;
+        for (String value : dictionary) encode(value);
+    }
+
+    /**
+     * Returns the table for the given csv file, parsing it only the first time it is requested.
+     * Parsed tables are also saved as a snapshot next to the csv, which later runs read back instead of parsing.
+     *
+     * @param file CSV file to load.
+     * @return the loaded table.
+     */
+    public static synchronized FlightTable load(String file) throws IOException {
+        File csv = new File(file);
+        String key = csv.getCanonicalPath();
+        FlightTable table = loaded.get(key);
+        if (table == null) {
+            // A binary snapshot written by an earlier run is used while it matches the csv.
+            File snapshot = FlightSnapshot.snapshotFile(csv);
+            table = FlightSnapshot.readIfCurrent(snapshot, csv);
+            if (table == null) {
+                table = read(file);
+                FlightSnapshot.tryWrite(table, snapshot, csv);
+            }
+            loaded.put(key, table);
+        }
+        return table;
+    }
+
+    /**
+     * Parses a csv file into a new table, using every available processor for large files.
+     *
+     * @param file CSV file to parse.
+     * @return the parsed table.
+     */
+    public static FlightTable read(String file) throws IOException {
+        return read(file, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Parses a csv file into a new table.
+     * The file is memory-mapped and split at line boundaries into parts that are parsed in parallel.
+     * Column types are taken from the first data row; an integer column is widened to decimal
+     * if a later row contains a fraction.
+     *
+     * @param file CSV file to parse.
+     * @param threads number of parts to parse in parallel.
+     * @return the parsed table.
+     */
+    public static FlightTable read(String file, int threads) throws IOException {
+        try (CsvScanner scanner = new CsvScanner(file)) {
+            String[] names = scanner.header();
+            Type[] types = columnTypes(scanner);
+
+            long[] bounds = scanner.split(scanner.size() < PARALLEL_BYTES ? 1 : Math.max(threads, 1));
+            List<Segment> segments = new ArrayList<>();
+            for (int p = 0; p + 1 < bounds.length; p++) segments.add(new Segment(types));
+
+            if (segments.size() == 1) {
+                scanner.scan(bounds[0], bounds[1], segments.get(0));
+            } else {
+                List<ForkJoinTask<?>> tasks = new ArrayList<>();
+                for (int p = 0; p < segments.size(); p++) {
+                    final long from = bounds[p], to = bounds[p + 1];
+                    final Segment seg = segments.get(p);
+                    tasks.add(ForkJoinPool.commonPool().submit(() -> {
+                        try {
+                            scanner.scan(from, to, seg);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }));
+                }
+                try {
+                    for (ForkJoinTask<?> task : tasks) task.join();
+                } catch (UncheckedIOException e) {
+                    throw e.getCause();
+                }
+            }
+            return new FlightTable(names, types, segments);
+        }
+    }
+
+    /**
+     * Types the columns from the first data row, as {@link #read(String, int)} does before parsing. Readers that
+     * stream the csv instead of loading it use this so they format and order values as a loaded table would.
+     *
+     * @param scanner scanner of the csv.
+     * @return the type of each column of the header.
+     */
+    static Type[] columnTypes(CsvScanner scanner) throws IOException {
+        Type[] types = new Type[scanner.header().length];
+        Arrays.fill(types, Type.TEXT);
+        scanner.scan(row -> {
+            for (int c = 0; c < types.length; c++) {
+                if (c < row.fieldCount() && row.isNumber(c)) {
+                    types[c] = row.isDecimal(c) ? Type.DECIMAL : Type.INTEGER;
+                }
+            }
+            return false;
+        });
+        return types;
+    }
+
+    /**
+     * Columns parsed from one part of a file.
+     * Text is dictionary-encoded straight from the mapped bytes; a String is only made for each new value.
+     */
+    private static class Segment implements CsvScanner.RowVisitor {
+        private final Type[] types;
+        private int rows;
+        private final int[][] codes;
+        private final long[][] longs;
+        private final double[][] doubles;
+
+        // Open addressing table of local dictionary codes, keyed by the bytes of the value.
+        private final List<byte[]> values = new ArrayList<>();
+        private int[] slots = new int[64];
+
+        Segment(Type[] types) {
+            this.types = types.clone();
+            codes = new int[types.length][];
+            longs = new long[types.length][];
+            doubles = new double[types.length][];
+            for (int c = 0; c < types.length; c++) {
+                switch (types[c]) {
+                    case TEXT: codes[c] = new int[1024]; break;
+                    case INTEGER: longs[c] = new long[1024]; break;
+                    default: doubles[c] = new double[1024];
+                }
+            }
+            Arrays.fill(slots, -1);
+        }
+
+        @Override
+        public boolean row(CsvScanner.Row row) {
+            if (row.fieldCount() < types.length) {
+                throw new IllegalArgumentException("Line at offset " + row.lineOffset() + " has "
+                        + row.fieldCount() + " columns, expected " + types.length);
+            }
+            if (rows == capacity()) grow();
+            for (int c = 0; c < types.length; c++) {
+                switch (types[c]) {
+                    case TEXT:
+                        codes[c][rows] = encode(row, c);
+                        break;
+                    case INTEGER:
+                        if (row.isDecimal(c)) {
+                            widen(c);
+                            doubles[c][rows] = row.parseDouble(c);
+                        } else {
+                            longs[c][rows] = row.parseLong(c);
+                        }
+                        break;
+                    default:
+                        doubles[c][rows] = row.parseDouble(c);
+                }
+            }
+            rows++;
+            return true;
+        }
+
+        private int capacity() {
+            for (int c = 0; c < types.length; c++) {
+                if (codes[c] != null) return codes[c].length;
+                if (longs[c] != null) return longs[c].length;
+                if (doubles[c] != null) return doubles[c].length;
+            }
+            return Integer.MAX_VALUE;
+        }
+
+        private void grow() {
+            int capacity = rows * 2;
+            for (int c = 0; c < types.length; c++) {
+                if (codes[c] != null) codes[c] = Arrays.copyOf(codes[c], capacity);
+                if (longs[c] != null) longs[c] = Arrays.copyOf(longs[c], capacity);
+                if (doubles[c] != null) doubles[c] = Arrays.copyOf(doubles[c], capacity);
+            }
+        }
+
+        // Converts an integer column to a decimal column once a fractional value has been seen.
+        private void widen(int c) {
+            double[] d = new double[longs[c].length];
+            for (int r = 0; r < rows; r++) d[r] = longs[c][r];
+            doubles[c] = d;
+            longs[c] = null;
+            types[c] = Type.DECIMAL;
+        }
+
+        private int encode(CsvScanner.Row row, int field) {
+            int mask = slots.length - 1;
+            int slot = row.hash(field) & mask;
+            while (slots[slot] >= 0) {
+                if (row.equalsBytes(field, values.get(slots[slot]))) return slots[slot];
+                slot = (slot + 1) & mask;
+            }
+            int code = values.size();
+            values.add(row.text(field).getBytes(StandardCharsets.UTF_8));
+            slots[slot] = code;
+            if (values.size() * 2 > slots.length) rehash();
+            return code;
+        }
+
+        private void rehash() {
+            slots = new int[slots.length * 2];
+            Arrays.fill(slots, -1);
+            int mask = slots.length - 1;
+            for (int code = 0; code < values.size(); code++) {
+                int h = 0;
+                for (byte b : values.get(code)) h = 31 * h + b;
+                int slot = h & mask;
+                while (slots[slot] >= 0) slot = (slot + 1) & mask;
+                slots[slot] = code;
+            }
+        }
+    }
+
+    private int encode(String v) {
+        Integer code = dictionaryCodes.get(v);
+        if (code == null) {
+            code = dictionary.size();
+            dictionary.add(v);
+            dictionaryCodes.put(v, code);
+            dictionaryOrder = null;
+        }
+        return code;
+    }
+
+    public int rowCount() {
+        return rows;
+    }
+
+    public int columnCount() {
+        return columnNames.length;
+    }
+
+    /**
+     * @param column 1-based column number.
+     * @return the header name of the column.
+     */
+    public String columnName(int column) {
+        return columnNames[check(column)];
+    }
+
+    /**
+     * @param column 1-based column number.
+     * @return the storage type of the column.
+     */
+    public Type columnType(int column) {
+        return types[check(column)];
+    }
+
+    /**
+     * Returns the 1-based number of the column with the given header, or -1 if there is none.
+     *
+     * @param name header name.
+     * @return the column number.
+     */
+    public int columnIndex(String name) {
+        for (int c = 0; c < columnNames.length; c++) {
+            if (columnNames[c].equals(name)) return c + 1;
+        }
+        return -1;
+    }
+
+    private int check(int column) {
+        if (column < 1 || column > columnNames.length) {
+            throw new IllegalArgumentException("Column " + column + " is out of range 1.." + columnNames.length);
+        }
+        return column - 1;
+    }
+
+    /**
+     * Returns a table with the rows of another table after the rows of this one, such as a new month of records
+     * after the history. This table is not changed. The columns are grown with spare room, and the next append
+     * to the new table writes into that room instead of copying, so appending d rows usually costs O(d).
+     * Text values new to this table are added to the end of the dictionary, so existing codes keep their
+     * meaning; a column that is decimal in either table is decimal in the result.
+     *
+     * @param delta the rows to append, with the same columns as this table.
+     * @return the combined table.
+     */
+    public FlightTable append(FlightTable delta) {
+        if (!Arrays.equals(columnNames, delta.columnNames)) {
+            throw new IllegalArgumentException("Appended records have columns " + Arrays.toString(delta.columnNames)
+                    + ", expected " + Arrays.toString(columnNames));
+        }
+        Type[] newTypes = types.clone();
+        for (int c = 0; c < types.length; c++) {
+            if ((types[c] == Type.TEXT) != (delta.types[c] == Type.TEXT)) {
+                throw new IllegalArgumentException(columnNames[c] + " is text in only one of the tables");
+            }
+            if (delta.types[c] == Type.DECIMAL) newTypes[c] = Type.DECIMAL;
+        }
+        int total = Math.addExact(rows, delta.rows);
+
+        // The room after this table's rows is used if no other table has taken it.
+        boolean inPlace = capacity() >= total && filled.compareAndSet(rows, total);
+        int capacity = inPlace ? capacity() : Math.max(total, rows + (rows >> 1));
+        AtomicInteger newFilled = inPlace ? filled : new AtomicInteger(total);
+
+        List<String> values = new ArrayList<>(dictionary);
+        int[] remap = new int[delta.dictionary.size()];
+        for (int i = 0; i < remap.length; i++) {
+            Integer code = dictionaryCodes.get(delta.dictionary.get(i));
+            if (code == null) {
+                code = values.size();
+                values.add(delta.dictionary.get(i));
+            }
+            remap[i] = code;
+        }
+
+        int[][] newCodes = new int[types.length][];
+        long[][] newLongs = new long[types.length][];
+        double[][] newDoubles = new double[types.length][];
+        for (int c = 0; c < types.length; c++) {
+            switch (newTypes[c]) {
+                case TEXT:
+                    newCodes[c] = inPlace ? codes[c] : Arrays.copyOf(codes[c], capacity);
+                    for (int r = 0; r < delta.rows; r++) newCodes[c][rows + r] = remap[delta.codes[c][r]];
+                    break;
+                case INTEGER:
+                    newLongs[c] = inPlace ? longs[c] : Arrays.copyOf(longs[c], capacity);
+                    System.arraycopy(delta.longs[c], 0, newLongs[c], rows, delta.rows);
+                    break;
+                default:
+                    if (types[c] == Type.DECIMAL) {
+                        newDoubles[c] = inPlace ? doubles[c] : Arrays.copyOf(doubles[c], capacity);
+                    } else {
+                        // Widened by the appended rows; this table keeps its integer column.
+                        newDoubles[c] = new double[capacity];
+                        for (int r = 0; r < rows; r++) newDoubles[c][r] = longs[c][r];
+                    }
+                    if (delta.types[c] == Type.DECIMAL) {
+                        System.arraycopy(delta.doubles[c], 0, newDoubles[c], rows, delta.rows);
+                    } else {
+                        for (int r = 0; r < delta.rows; r++) newDoubles[c][rows + r] = delta.longs[c][r];
+                    }
+            }
+        }
+        return new FlightTable(columnNames, newTypes, total, newCodes, newLongs, newDoubles, values, newFilled);
+    }
+
+    // Rows the column arrays have room for.
+    private int capacity() {
+        int capacity = Integer.MAX_VALUE;
+        for (int c = 0; c < types.length; c++) {
+            switch (types[c]) {
+                case TEXT: capacity = Math.min(capacity, codes[c].length); break;
+                case INTEGER: capacity = Math.min(capacity, longs[c].length); break;
+                default: capacity = Math.min(capacity, doubles[c].length);
+            }
+        }
+        return capacity;
+    }
+
+    /**
+     * Returns a numeric value of a row.
+     * Text columns return the alphabetical position of the value, so they sort by name.
+     *
+     * @param column 1-based column number.
+     * @param row 0-based row number.
+     * @return the value as a double.
+     */
+    public double getDouble(int column, int row) {
+        int c = check(column);
+        switch (types[c]) {
+            case TEXT: return dictionaryOrder()[codes[c][row]];
+            case INTEGER: return longs[c][row];
+            default: return doubles[c][row];
+        }
+    }
+
+    /**
+     * @param column 1-based integer column.
+     * @param row 0-based row number.
+     * @return the value as a long.
+     */
+    public long getLong(int column, int row) {
+        int c = check(column);
+        if (types[c] == Type.INTEGER) return longs[c][row];
+        return (long) getDouble(column, row);
+    }
+
+    /**
+     * @param column 1-based text column.
+     * @param row 0-based row number.
+     * @return the dictionary code of the value.
+     */
+    public int getCode(int column, int row) {
+        int c = check(column);
+        if (types[c] != Type.TEXT) throw new IllegalArgumentException(columnNames[c] + " is not a text column");
+        return codes[c][row];
+    }
+
+    /**
+     * @param column 1-based column number.
+     * @param row 0-based row number.
+     * @return the value as it appeared in the csv file.
+     */
+    public String getString(int column, int row) {
+        int c = check(column);
+        switch (types[c]) {
+            case TEXT: return dictionary.get(codes[c][row]);
+            case INTEGER: return Long.toString(longs[c][row]);
+            default: return format(doubles[c][row]);
+        }
+    }
+
+    /**
+     * @param code dictionary code.
+     * @return the text value for the code.
+     */
+    public String decode(int code) {
+        return dictionary.get(code);
+    }
+
+    /**
+     * @param value text value.
+     * @return the dictionary code of the value, or -1 if it does not occur in the table.
+     */
+    public int codeOf(String value) {
+        Integer code = dictionaryCodes.get(value);
+        return code == null ? -1 : code;
+    }
+
+    public int dictionarySize() {
+        return dictionary.size();
+    }
+
+    /**
+     * Copies a column into a fresh array of sort keys.
+     * Text columns are keyed by the alphabetical position of each value.
+     *
+     * @param column 1-based column number.
+     * @return one key per row.
+     */
+    public double[] keys(int column) {
+        return keys(column, 0, rows);
+    }
+
+    /**
+     * Copies part of a column into a fresh array of sort keys, such as the keys of appended rows.
+     *
+     * @param column 1-based column number.
+     * @param from first 0-based row.
+     * @param to row after the last one.
+     * @return one key per row from from to to - 1.
+     */
+    public double[] keys(int column, int from, int to) {
+        int c = check(column);
+        if (from < 0 || to > rows || from > to) {
+            throw new IllegalArgumentException("Rows " + from + " to " + to + " are out of range 0.." + rows);
+        }
+        double[] keys = new double[to - from];
+        switch (types[c]) {
+            case TEXT:
+                int[] order = dictionaryOrder();
+                for (int r = from; r < to; r++) keys[r - from] = order[codes[c][r]];
+                break;
+            case INTEGER:
+                for (int r = from; r < to; r++) keys[r - from] = longs[c][r];
+                break;
+            default:
+                System.arraycopy(doubles[c], from, keys, 0, to - from);
+        }
+        return keys;
+    }
+
+    /**
+     * Maps each text key of this table, the alphabetical position of a value, to the key the same value has in
+     * a table appended to this one, whose new values may come between the old ones. Keys already sorted can then
+     * be moved through the map without reading their rows again. Costs O(dictionary size).
+     *
+     * @param grown a table returned by {@link #append(FlightTable)} on this table.
+     * @return the new key of each old key.
+     */
+    int[] textKeysIn(FlightTable grown) {
+        int[] order = dictionaryOrder(), grownOrder = grown.dictionaryOrder();
+        int[] moved = new int[order.length];
+        for (int code = 0; code < order.length; code++) moved[order[code]] = grownOrder[code];
+        return moved;
+    }
+
+    // Alphabetical position of every dictionary code.
+    private int[] dictionaryOrder() {
+        if (dictionaryOrder == null) {
+            Integer[] sorted = new Integer[dictionary.size()];
+            for (int i = 0; i < sorted.length; i++) sorted[i] = i;
+            Arrays.sort(sorted, Comparator.comparing(dictionary::get));
+            int[] order = new int[sorted.length];
+            for (int i = 0; i < sorted.length; i++) order[sorted[i]] = i;
+            dictionaryOrder = order;
+        }
+        return dictionaryOrder;
+    }
+
+    // Raw column arrays for FlightSnapshot and the explorer. They are not copied, may be longer than rowCount()
+    // and must not be modified.
+
+    int[] codeColumn(int column) {
+        return codes[check(column)];
+    }
+
+    long[] longColumn(int column) {
+        return longs[check(column)];
+    }
+
+    double[] doubleColumn(int column) {
+        return doubles[check(column)];
+    }
+
+    /**
+     * Rebuilds a row in the same form as the line it was read from.
+     *
+     * @param row 0-based row number.
+     * @return the comma separated row.
+     */
+    public String row(int row) {
+        StringBuilder sb = new StringBuilder();
+        for (int c = 1; c <= columnNames.length; c++) {
+            if (c > 1) sb.append(',');
+            sb.append(getString(c, row));
+        }
+        return sb.toString();
+    }
+
+    // Whole numbers are written without a fraction, as they are in the csv.
+    static String format(double val) {
+        if (val == Math.rint(val) && Math.abs(val) < 1e15) return Long.toString((long) val);
+        return Double.toString(val);
+    }
+}
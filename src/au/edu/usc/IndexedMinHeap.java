@@ -0,0 +1,139 @@
+package au.edu.usc;
+
+import java.util.Arrays;
+
+/**
+ * Binary min-heap of node ids keyed by int distances, with the position of every id tracked
+ * so a queued id can have its key lowered in place.
+ * All storage is allocated up front; no operation allocates.
+ *
+ * @author Joseph Thurlow
+ */
+public class IndexedMinHeap {
+
+    private final int[] heap;
+    private final int[] pos;
+    private final int[] keys;
+    private int size;
+
+    /**
+     * @param capacity number of ids (0 to capacity - 1) the heap can hold.
+     */
+    public IndexedMinHeap(int capacity) {
+        heap = new int[capacity];
+        pos = new int[capacity];
+        keys = new int[capacity];
+        Arrays.fill(pos, -1);
+    }
+
+    public int capacity() {
+        return heap.length;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param id node id.
+     * @return true if the id is queued.
+     */
+    public boolean contains(int id) {
+        return pos[id] >= 0;
+    }
+
+    /**
+     * @param id queued node id.
+     * @return its current key.
+     */
+    public int key(int id) {
+        return keys[id];
+    }
+
+    /**
+     * Queues an id, or lowers its key if it is already queued with a larger one.
+     *
+     * @param id node id.
+     * @param key distance to order by.
+     * @return true if the id was queued or its key lowered.
+     */
+    public boolean offer(int id, int key) {
+        int p = pos[id];
+        if (p < 0) {
+            p = size++;
+            heap[p] = id;
+            pos[id] = p;
+        } else if (key >= keys[id]) {
+            return false;
+        }
+        keys[id] = key;
+        siftUp(p);
+        return true;
+    }
+
+    /**
+     * @return the id with the smallest key, without removing it.
+     */
+    public int peek() {
+        if (size == 0) throw new IllegalStateException("Heap is empty");
+        return heap[0];
+    }
+
+    /**
+     * Removes and returns the id with the smallest key.
+     *
+     * @return the id.
+     */
+    public int poll() {
+        int top = peek();
+        pos[top] = -1;
+        if (--size > 0) {
+            heap[0] = heap[size];
+            pos[heap[0]] = 0;
+            siftDown(0);
+        }
+        return top;
+    }
+
+    /**
+     * Empties the heap in time proportional to its size.
+     */
+    public void clear() {
+        for (int i = 0; i < size; i++) pos[heap[i]] = -1;
+        size = 0;
+    }
+
+    private void siftUp(int p) {
+        int id = heap[p];
+        int key = keys[id];
+        while (p > 0) {
+            int parent = (p - 1) >>> 1;
+            if (keys[heap[parent]] <= key) break;
+            heap[p] = heap[parent];
+            pos[heap[p]] = p;
+            p = parent;
+        }
+        heap[p] = id;
+        pos[id] = p;
+    }
+
+    private void siftDown(int p) {
+        int id = heap[p];
+        int key = keys[id];
+        while (true) {
+            int child = 2 * p + 1;
+            if (child >= size) break;
+            if (child + 1 < size && keys[heap[child + 1]] < keys[heap[child]]) child++;
+            if (keys[heap[child]] >= key) break;
+            heap[p] = heap[child];
+            pos[heap[p]] = p;
+            p = child;
+        }
+        heap[p] = id;
+        pos[id] = p;
+    }
+}
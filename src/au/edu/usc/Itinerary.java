@@ -0,0 +1,134 @@
+package au.edu.usc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A route found by a shortest-path query: the cities in travel order, the distance of each leg and the total.
+ * It is rebuilt once from the predecessor ids when a query ends, rather than tracked while the search runs.
+ *
+ * @author Joseph Thurlow
+ */
+public class Itinerary {
+
+    private final RouteGraph graph;
+    private final int[] stops;
+    private final int[] legs;
+    private final int total;
+
+    Itinerary(RouteGraph graph, int[] stops, int[] legs, int total) {
+        this.graph = graph;
+        this.stops = stops;
+        this.legs = legs;
+        this.total = total;
+    }
+
+    /**
+     * Follows the predecessors left in a search context back from the target to the origin.
+     * Each leg is the difference between the settled distances at its two ends.
+     *
+     * @param graph the graph that was searched.
+     * @param ctx context holding a finished search.
+     * @param target id of the destination city.
+     * @return the route, or null if the target was not reached.
+     */
+    static Itinerary fromSearch(RouteGraph graph, SearchContext ctx, int target) {
+        if (ctx.dist(target) == RouteGraph.UNREACHABLE) return null;
+        int count = 1;
+        for (int v = ctx.pred(target); v != -1; v = ctx.pred(v)) count++;
+
+        int[] stops = new int[count];
+        int[] legs = new int[count - 1];
+        for (int v = target, i = count - 1; v != -1; v = ctx.pred(v), i--) {
+            stops[i] = v;
+            if (i > 0) legs[i - 1] = ctx.dist(v) - ctx.dist(ctx.pred(v));
+        }
+        return new Itinerary(graph, stops, legs, ctx.dist(target));
+    }
+
+    /**
+     * Joins the two halves of a bidirectional search at the city where they meet.
+     * The forward predecessors lead back from the meeting city to the origin and the backward
+     * predecessors lead on from it to the target.
+     *
+     * @param graph the graph that was searched.
+     * @param forward context holding the forward search.
+     * @param backward context holding the backward search.
+     * @param meet the meeting city, or -1 if the target was not reached.
+     * @return the route, or null if the target was not reached.
+     */
+    static Itinerary fromMeeting(RouteGraph graph, SearchContext forward, SearchContext backward, int meet) {
+        if (meet < 0) return null;
+        int head = 0, tail = 0;
+        for (int v = forward.pred(meet); v != -1; v = forward.pred(v)) head++;
+        for (int v = backward.pred(meet); v != -1; v = backward.pred(v)) tail++;
+
+        int[] stops = new int[head + tail + 1];
+        int[] legs = new int[head + tail];
+        for (int v = meet, i = head; v != -1; v = forward.pred(v), i--) {
+            stops[i] = v;
+            if (i > 0) legs[i - 1] = forward.dist(v) - forward.dist(forward.pred(v));
+        }
+        for (int v = backward.pred(meet), i = head + 1; v != -1; v = backward.pred(v), i++) {
+            stops[i] = v;
+            legs[i - 1] = backward.dist(stops[i - 1]) - backward.dist(v);
+        }
+        return new Itinerary(graph, stops, legs, forward.dist(meet) + backward.dist(meet));
+    }
+
+    /**
+     * @return the number of cities on the route, including the origin and destination.
+     */
+    public int stopCount() {
+        return stops.length;
+    }
+
+    /**
+     * @param i 0-based position on the route.
+     * @return the id of the city in the route graph.
+     */
+    public int stop(int i) {
+        return stops[i];
+    }
+
+    /**
+     * @param i 0-based position on the route.
+     * @return the name of the city.
+     */
+    public String city(int i) {
+        return graph.name(stops[i]);
+    }
+
+    public List<String> cities() {
+        List<String> cities = new ArrayList<>(stops.length);
+        for (int stop : stops) cities.add(graph.name(stop));
+        return cities;
+    }
+
+    public int legCount() {
+        return legs.length;
+    }
+
+    /**
+     * @param i 0-based leg number; leg i flies from city(i) to city(i + 1).
+     * @return the distance of the leg in GC_KM.
+     */
+    public int legDistance(int i) {
+        return legs[i];
+    }
+
+    /**
+     * @return the distance of the whole route in GC_KM.
+     */
+    public int totalDistance() {
+        return total;
+    }
+
+    /**
+     * @return the route in the format printed by {@link ItineraryExplorer#checkItinerary(String, String)}.
+     */
+    @Override
+    public String toString() {
+        return String.join(" -> ", cities()) + " | " + total + " GC_KM";
+    }
+}
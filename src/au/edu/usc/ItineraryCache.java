@@ -0,0 +1,216 @@
+package au.edu.usc;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Bounded cache of itinerary results, so that the few city pairs asked for most often are not searched again
+ * on every request. It holds point-to-point answers keyed by (origin, destination, month) and single-source
+ * trees keyed by (origin, month), evicting the least recently used entry when full and, optionally, entries
+ * older than a time to live. Every entry belongs to one {@link RouteGraph}; the first lookup against a different
+ * graph empties the cache, so loading or changing the routes invalidates it without any extra call. Results
+ * stored for any other graph than the one last looked up, such as those of a search that was still running on
+ * the old graph, are dropped.
+ * Hits and misses are counted per lookup. The cache is safe to share between threads, but every method holds
+ * the cache's one lock, so lookups from different threads take turns rather than running in parallel.
+ *
+ * @author Joseph Thurlow
+ */
+public class ItineraryCache {
+
+    /** Month used for queries over the routes of every month. */
+    public static final int ALL_MONTHS = RouteGraph.ALL_MONTHS;
+
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final LinkedHashMap<Key, Cached> entries;
+    private RouteGraph graph;
+    private long hits, misses, evictions;
+
+    /**
+     * Creates a cache with no time to live.
+     *
+     * @param maxEntries the most entries kept.
+     */
+    public ItineraryCache(int maxEntries) {
+        this(maxEntries, 0);
+    }
+
+    /**
+     * @param maxEntries the most entries kept.
+     * @param ttlMillis how long an entry stays valid, or 0 to keep entries until they are evicted.
+     */
+    public ItineraryCache(int maxEntries, long ttlMillis) {
+        if (maxEntries < 1) throw new IllegalArgumentException("Cache size must be positive: " + maxEntries);
+        if (ttlMillis < 0) throw new IllegalArgumentException("Time to live must not be negative: " + ttlMillis);
+        this.maxEntries = maxEntries;
+        this.ttlNanos = ttlMillis * 1_000_000;
+        entries = new LinkedHashMap<Key, Cached>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Cached> eldest) {
+                if (size() <= ItineraryCache.this.maxEntries) return false;
+                evictions++;
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Looks up a point-to-point answer, either cached as it is or read from a cached tree of the origin.
+     * The lookup counts as one hit or one miss, however it was answered.
+     *
+     * @param graph the graph being queried.
+     * @param source id of the origin city.
+     * @param target id of the destination city.
+     * @param month the month searched, or ALL_MONTHS.
+     * @return null on a miss, otherwise the cached route, which is empty if the cities are not connected.
+     */
+    public synchronized Optional<Itinerary> getItinerary(RouteGraph graph, int source, int target, int month) {
+        checkGraph(graph);
+        Cached entry = find(new Key(source, target, month));
+        Optional<Itinerary> result = null;
+        if (entry != null) {
+            result = Optional.ofNullable((Itinerary) entry.value);
+        } else {
+            Cached tree = find(new Key(source, -1, month));
+            if (tree != null) result = Optional.ofNullable(((ShortestPathTree) tree.value).itinerary(target));
+        }
+        count(result != null);
+        return result;
+    }
+
+    /**
+     * @param graph the graph that was searched; the result is dropped unless it is the graph last looked up.
+     * @param source id of the origin city.
+     * @param target id of the destination city.
+     * @param month the month searched, or ALL_MONTHS.
+     * @param itinerary the route found, or null if the cities are not connected.
+     */
+    public synchronized void putItinerary(RouteGraph graph, int source, int target, int month, Itinerary itinerary) {
+        store(graph, new Key(source, target, month), itinerary);
+    }
+
+    /**
+     * Looks up the shortest routes from a city to every other.
+     *
+     * @param graph the graph being queried.
+     * @param source id of the origin city.
+     * @param month the month searched, or ALL_MONTHS.
+     * @return the cached tree, or null on a miss.
+     */
+    public synchronized ShortestPathTree getTree(RouteGraph graph, int source, int month) {
+        Cached entry = lookup(graph, new Key(source, -1, month));
+        return entry == null ? null : (ShortestPathTree) entry.value;
+    }
+
+    /**
+     * @param graph the graph that was searched; the tree is dropped unless it is the graph last looked up.
+     * @param month the month searched, or ALL_MONTHS.
+     * @param tree the finished tree.
+     */
+    public synchronized void putTree(RouteGraph graph, int month, ShortestPathTree tree) {
+        store(graph, new Key(tree.source(), -1, month), Objects.requireNonNull(tree));
+    }
+
+    private Cached lookup(RouteGraph graph, Key key) {
+        checkGraph(graph);
+        Cached entry = find(key);
+        count(entry != null);
+        return entry;
+    }
+
+    // The live entry for the key, without counting a hit or miss.
+    private Cached find(Key key) {
+        Cached entry = entries.get(key);
+        if (entry != null && ttlNanos > 0 && System.nanoTime() - entry.created > ttlNanos) {
+            entries.remove(key);
+            evictions++;
+            entry = null;
+        }
+        return entry;
+    }
+
+    private void count(boolean hit) {
+        if (hit) hits++;
+        else misses++;
+    }
+
+    // Only lookups move the cache to another graph, so a late result from an older graph cannot empty it.
+    private void store(RouteGraph graph, Key key, Object value) {
+        if (graph == this.graph) entries.put(key, new Cached(value, System.nanoTime()));
+    }
+
+    // Entries found with another graph are stale, as the routes they were computed from have changed.
+    private void checkGraph(RouteGraph graph) {
+        if (graph != this.graph) {
+            entries.clear();
+            this.graph = graph;
+        }
+    }
+
+    /**
+     * Removes every entry.
+     */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long hits() {
+        return hits;
+    }
+
+    public synchronized long misses() {
+        return misses;
+    }
+
+    /**
+     * @return the number of entries removed to make room or because their time to live ran out.
+     */
+    public synchronized long evictions() {
+        return evictions;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ItineraryCache[size=" + entries.size() + ", hits=" + hits + ", misses=" + misses
+                + ", evictions=" + evictions + "]";
+    }
+
+    private static final class Key {
+        private final int source, target, month;
+
+        private Key(int source, int target, int month) {
+            this.source = source;
+            this.target = target;
+            this.month = month;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key k = (Key) o;
+            return source == k.source && target == k.target && month == k.month;
+        }
+
+        @Override
+        public int hashCode() {
+            return (source * 31 + target) * 31 + month;
+        }
+    }
+
+    private static final class Cached {
+        private final Object value;
+        private final long created;
+
+        private Cached(Object value, long created) {
+            this.value = value;
+            this.created = created;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package au.edu.usc;
+
+import java.util.*;
+
+/**
+ * Limits on the itineraries a search may return: the number of stopovers, cities that may not be used as
+ * stopovers, the seats and passenger load factor every leg must have, and the month the routes must operate in.
+ * Constraints are immutable; each with method returns a changed copy, starting from {@link #NONE}.
+ *
+ * @author Joseph Thurlow
+ */
+public final class ItineraryConstraints {
+
+    /** No limits: any number of stopovers through any city, over the routes of every month. */
+    public static final ItineraryConstraints NONE =
+            new ItineraryConstraints(Integer.MAX_VALUE, Collections.emptySet(), 0, 0, RouteGraph.ALL_MONTHS);
+
+    private final int maxStopovers;
+    private final Set<String> avoided;
+    private final int minSeats;
+    private final double minLoadFactor;
+    private final int yearMonth;
+
+    private ItineraryConstraints(int maxStopovers, Set<String> avoided, int minSeats, double minLoadFactor,
+                                 int yearMonth) {
+        this.maxStopovers = maxStopovers;
+        this.avoided = avoided;
+        this.minSeats = minSeats;
+        this.minLoadFactor = minLoadFactor;
+        this.yearMonth = yearMonth;
+    }
+
+    /**
+     * @param stopovers the most cities an itinerary may stop at between its origin and destination.
+     * @return the changed constraints.
+     */
+    public ItineraryConstraints withMaxStopovers(int stopovers) {
+        if (stopovers < 0) throw new IllegalArgumentException("Stopovers must not be negative: " + stopovers);
+        return new ItineraryConstraints(stopovers, avoided, minSeats, minLoadFactor, yearMonth);
+    }
+
+    /**
+     * Adds cities an itinerary may not stop at. The origin and destination themselves are always allowed.
+     * Names are upper-cased to match the city names of the records.
+     *
+     * @param cities city names.
+     * @return the changed constraints.
+     */
+    public ItineraryConstraints avoiding(String... cities) {
+        Set<String> all = new TreeSet<>(avoided);
+        for (String city : cities) all.add(city.toUpperCase());
+        return new ItineraryConstraints(maxStopovers, Collections.unmodifiableSet(all), minSeats, minLoadFactor,
+                yearMonth);
+    }
+
+    /**
+     * @param seats the fewest average seats per month every leg must have.
+     * @return the changed constraints.
+     */
+    public ItineraryConstraints withMinSeats(int seats) {
+        if (seats < 0) throw new IllegalArgumentException("Seats must not be negative: " + seats);
+        return new ItineraryConstraints(maxStopovers, avoided, seats, minLoadFactor, yearMonth);
+    }
+
+    /**
+     * @param loadFactor the lowest percentage of seats filled every leg must have.
+     * @return the changed constraints.
+     */
+    public ItineraryConstraints withMinLoadFactor(double loadFactor) {
+        if (!(loadFactor >= 0)) throw new IllegalArgumentException("Load factor must not be negative: " + loadFactor);
+        return new ItineraryConstraints(maxStopovers, avoided, minSeats, loadFactor, yearMonth);
+    }
+
+    /**
+     * @param yearMonth the month every leg must operate in, as yyyymm, or RouteGraph.ALL_MONTHS.
+     * @return the changed constraints.
+     */
+    public ItineraryConstraints inMonth(int yearMonth) {
+        return new ItineraryConstraints(maxStopovers, avoided, minSeats, minLoadFactor, yearMonth);
+    }
+
+    public int maxStopovers() {
+        return maxStopovers;
+    }
+
+    public Set<String> avoidedCities() {
+        return avoided;
+    }
+
+    public int minSeats() {
+        return minSeats;
+    }
+
+    public double minLoadFactor() {
+        return minLoadFactor;
+    }
+
+    public int yearMonth() {
+        return yearMonth;
+    }
+
+    @Override
+    public String toString() {
+        return "ItineraryConstraints[maxStopovers=" + (maxStopovers == Integer.MAX_VALUE ? "any" : maxStopovers)
+                + ", avoided=" + avoided + ", minSeats=" + minSeats + ", minLoadFactor=" + minLoadFactor
+                + ", month=" + yearMonth + "]";
+    }
+}
@@ -1,11 +1,9 @@
 package au.edu.usc;
 
-import java.io.BufferedReader;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
+import java.io.File;
 import java.io.IOException;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * The shortest flight path between two cities can be found using a graph and Dijkstra's shortest path algorithm.
@@ -14,165 +12,448 @@ import java.util.stream.Collectors;
  */
 public class ItineraryExplorer {
 
-    private final List<String> records = new ArrayList<>();
-    private Set<String> origin = new HashSet<>();
-    private Set<String> destination = new HashSet<>();
-    private List<Node> graph = new ArrayList<>();
-    private HashMap<String, Node> unique = new HashMap<>();
+    // Csv columns holding the origin, destination and great-circle distance of a route.
+    private static final int ORIGIN_COLUMN = 1;
+    private static final int DEST_COLUMN = 2;
+    private static final int DISTANCE_COLUMN = 7;
+    // Columns that date each record and show whether the route operated; files without them have no months.
+    private static final String YEAR_COLUMN = "Year";
+    private static final String MONTH_COLUMN = "Month_num";
+    private static final String AIRCRAFT_TRIPS_COLUMN = "Aircraft_Trips";
+    // Columns that give the traffic of each route, for searches with seat or load factor limits.
+    private static final String PASSENGER_TRIPS_COLUMN = "Passenger_Trips";
+    private static final String SEATS_COLUMN = "Seats";
+    // Looked for next to the csv file, for A* searches.
+    private static final String COORDINATES_FILE = "city_coordinates.csv";
 
     /**
-     * Reads the data from the csv file specified in the parameters.
-     * Appends the required columns into lists for both origin and destination.
-     * Adds Nodes to the "unique" HashMap to be used in the "graph" List.
-     * Adds destinations to the nodes.
-     * Creates a List of records containing unedited rows from the csv file for use when retrieving rank.
+     * How a query between two cities searches the route graph.
+     */
+    public enum SearchMode {
+        /** Dijkstra from the origin, stopping once the destination is settled. */
+        POINT_TO_POINT,
+        /** Dijkstra from both ends at once over the forward and reversed routes. */
+        BIDIRECTIONAL,
+        /** A* guided by great-circle distances; point-to-point Dijkstra when coordinates are missing. */
+        A_STAR
+    }
+
+    // Replaced as a whole by each load, so a query always sees one complete graph.
+    private volatile RouteGraph routes;
+    private volatile SearchMode mode = SearchMode.POINT_TO_POINT;
+    // Only used while it was computed for the current graph; null until precomputeAllPairs is called.
+    private volatile AllPairsTable allPairs;
+    private final ItineraryCache cache;
+    // The routes collected from the loaded records, kept so that later records can be added to them,
+    // with the coordinates and columns of the load.
+    private RouteGraph.Builder builder;
+    private CityCoordinates coordinates;
+    private String[] columns;
+
+    /**
+     * Creates an explorer that caches the results of up to 10000 queries.
+     */
+    public ItineraryExplorer() {
+        this(new ItineraryCache(10_000));
+    }
+
+    /**
+     * @param cache cache for query results, or null to search on every query.
+     */
+    public ItineraryExplorer(ItineraryCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * @return the result cache, or null if results are not cached.
+     */
+    public ItineraryCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Loads the csv file specified in the parameters through the memory-mapped {@link FlightTable} loader,
+     * then builds an immutable {@link RouteGraph} from it in a single pass that replaces any previously loaded
+     * graph. Cities are looked up by their dictionary code in the table, so no record is parsed twice.
+     * Placeholder routes without a distance are skipped, and a route listed with different distances keeps the
+     * one most rows agree on; both are reported. When the records have Year and Month_num columns, as the
+     * multi-year city-pairs history does, each route also records the months it operated in (months with
+     * aircraft trips), so itineraries can be checked for a single month. The passengers and seats of each
+     * route are added up for searches that limit them. City coordinates are read from
+     * city_coordinates.csv in the same directory when it exists. The all-pairs table is rebuilt if one was
+     * precomputed.
      *
      * @param file CVS file required for sorting by column.
      */
-    public void sortRecords(String file) throws IOException {
-        // Reads the csv file.
-        try {
-            BufferedReader br = new BufferedReader(new FileReader(file));
-            br.readLine(); // To skip reading the first line.
-            String line;
-            while ((line = br.readLine()) != null) {
-                records.add(line);
-                // Use comma as separator.
-                String[] cols = line.split(",");
-                unique.put(cols[0], new Node(cols[0]));
-                unique.put(cols[1], new Node(cols[1]));
-            }
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
+    public synchronized void sortRecords(String file) throws IOException {
+        FlightTable table = FlightTable.load(file);
+        long[] yearMonths = yearMonths(table);
+        RouteGraph.Builder builder = new RouteGraph.Builder();
+        if (yearMonths != null && table.rowCount() > 0) {
+            long[] range = range(yearMonths);
+            builder = new RouteGraph.Builder((int) range[0], (int) range[1]);
         }
+        addRecords(builder, table, yearMonths, file);
 
-        for (String line : records) {
-            String[] cols = line.split(",");
-            boolean inList = false;
+        File coordinates = new File(new File(file).getAbsoluteFile().getParentFile(), COORDINATES_FILE);
+        CityCoordinates coords = coordinates.isFile() ? CityCoordinates.load(coordinates.getPath()) : null;
+        RouteGraph built = builder.build(coords);
+        if (allPairs != null) allPairs = AllPairsTable.build(built, ForkJoinPool.commonPool());
+        this.builder = builder;
+        this.coordinates = coords;
+        columns = columnNames(table);
+        routes = built;
+    }
 
-            for (Node n : graph) {
-                if (n.getName().equals(cols[0])) {
-//                        System.out.println("Already in list: " + cols[0] + " - " + cols[1] + " - " + cols[6]);
-                    n.addDest(unique.get(cols[1]), Integer.parseInt(cols[6]));
-                    inList = true;
-                    break;
-                }
+    /**
+     * Adds the records of another csv file, such as a new month of the history, to the loaded routes.
+     * The new records are merged into the routes collected by the last {@link #sortRecords(String)}: new routes
+     * and cities are added, months are marked, traffic is added to each route's totals and distances are voted
+     * on, so the cost of reading the records is proportional to the new file, not the history. The routes are
+     * then packed into a new graph, the same graph sortRecords would build from both files. The graph is never
+     * changed in place, so every route is packed again, in O(cities log cities + routes * months / 64) with the
+     * months kept as bits: proportional to the route network rather than the new file, but not to the history's
+     * rows either. Routes changed with setRoute or removeRoute since the last
+     * load are replaced, as a reload would replace them. The result cache is invalidated by the new graph and
+     * a precomputed all-pairs table only has the rows the new records can affect recomputed.
+     *
+     * @param file CSV file with the same columns as the loaded records.
+     */
+    public synchronized void ingest(String file) throws IOException {
+        RouteGraph.Builder builder = this.builder;
+        if (builder == null) throw new IllegalStateException("No records have been loaded");
+        FlightTable delta = FlightTable.read(file);
+        if (!Arrays.equals(columnNames(delta), columns)) {
+            throw new IllegalArgumentException(file + " has columns " + Arrays.toString(columnNames(delta))
+                    + ", expected " + Arrays.toString(columns));
+        }
+        long[] yearMonths = builder.recordsMonths() ? yearMonths(delta) : null;
+        if (yearMonths != null && delta.rowCount() > 0) {
+            long[] range = range(yearMonths);
+            builder.extendMonths((int) range[0], (int) range[1]);
+        }
+        addRecords(builder, delta, yearMonths, file);
+        update(builder.build(coordinates));
+    }
+
+    /**
+     * Adds every record of a table to the builder and reports the routes it skipped or found in conflict.
+     *
+     * @param yearMonths the month of each record, or null to add the routes without months.
+     */
+    private static void addRecords(RouteGraph.Builder builder, FlightTable table, long[] yearMonths, String file) {
+        long[] aircraftTrips = integerColumn(table, AIRCRAFT_TRIPS_COLUMN);
+        long[] passengerTrips = integerColumn(table, PASSENGER_TRIPS_COLUMN);
+        long[] seats = integerColumn(table, SEATS_COLUMN);
+        int skipped = builder.skippedRoutes(), conflicting = builder.conflictingRoutes();
+        // City id in the builder for each dictionary code of the table, or -1 until the city is seen.
+        int[] cityOf = new int[table.dictionarySize()];
+        Arrays.fill(cityOf, -1);
+
+        for (int r = 0; r < table.rowCount(); r++) {
+            int code1 = table.getCode(ORIGIN_COLUMN, r);
+            int code2 = table.getCode(DEST_COLUMN, r);
+            if (cityOf[code1] < 0) cityOf[code1] = builder.city(table.decode(code1));
+            if (cityOf[code2] < 0) cityOf[code2] = builder.city(table.decode(code2));
+            int distance = (int) table.getLong(DISTANCE_COLUMN, r);
+            if (yearMonths != null && (aircraftTrips == null || aircraftTrips[r] > 0)) {
+                builder.addRoute(cityOf[code1], cityOf[code2], distance, (int) yearMonths[r]);
+            } else {
+                builder.addRoute(cityOf[code1], cityOf[code2], distance);
             }
-            if (!inList) {
-//                    System.out.println("Not in list: " + cols[0] + " - " + cols[1] + " - " + cols[6]);
-                graph.add(unique.get(cols[0]).addDest(unique.get(cols[1]), Integer.parseInt(cols[6])));
+            if (passengerTrips != null && seats != null) {
+                builder.addTraffic(cityOf[code1], cityOf[code2], passengerTrips[r], seats[r]);
             }
-            origin.add(cols[0]);
-            destination.add(cols[1]);
         }
+        skipped = builder.skippedRoutes() - skipped;
+        conflicting = builder.conflictingRoutes() - conflicting;
+        if (skipped > 0 || conflicting > 0) {
+            System.err.println(file + ": skipped " + skipped + " routes without a distance, "
+                    + conflicting + " routes listed with conflicting distances");
+        }
+    }
+
+    /**
+     * @return the first and last of the months.
+     */
+    private static long[] range(long[] yearMonths) {
+        long first = Long.MAX_VALUE, last = Long.MIN_VALUE;
+        for (long ym : yearMonths) {
+            first = Math.min(first, ym);
+            last = Math.max(last, ym);
+        }
+        return new long[]{first, last};
+    }
+
+    private static String[] columnNames(FlightTable table) {
+        String[] names = new String[table.columnCount()];
+        for (int c = 1; c <= names.length; c++) names[c - 1] = table.columnName(c);
+        return names;
+    }
+
+    /**
+     * @return the month of each record as yyyymm, or null if the table has no year and month columns.
+     */
+    private static long[] yearMonths(FlightTable table) {
+        long[] years = integerColumn(table, YEAR_COLUMN), months = integerColumn(table, MONTH_COLUMN);
+        if (years == null || months == null) return null;
+        long[] yearMonths = new long[table.rowCount()];
+        for (int r = 0; r < yearMonths.length; r++) yearMonths[r] = years[r] * 100 + months[r];
+        return yearMonths;
+    }
+
+    /**
+     * @return the values of the named column, or null if the table has no such column of whole numbers.
+     */
+    private static long[] integerColumn(FlightTable table, String name) {
+        int column = table.columnIndex(name);
+        if (column < 0 || table.columnType(column) != FlightTable.Type.INTEGER) return null;
+        return table.longColumn(column);
+    }
+
+    /**
+     * Precomputes the shortest distance and next hop between every pair of cities, one Dijkstra per city
+     * in parallel. Queries then follow the table instead of searching, whatever the search mode,
+     * and the table is kept up to date by later loads and route changes.
+     */
+    public synchronized void precomputeAllPairs() {
+        RouteGraph routes = this.routes;
+        if (routes == null) throw new IllegalStateException("No records have been loaded");
+        allPairs = AllPairsTable.build(routes, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Adds a route, or changes the distance of an existing one.
+     * A new route has no recorded seats or load factor, so constrained searches that require them skip it.
+     * A precomputed all-pairs table only has the rows the change can affect recomputed.
+     *
+     * @param city1 origin city.
+     * @param city2 destination city.
+     * @param distance distance of the route in GC_KM, positive unless the cities are the same.
+     */
+    public synchronized void setRoute(String city1, String city2, int distance) {
+        update(current().withRoute(city1.toUpperCase(), city2.toUpperCase(), distance));
+    }
+
+    /**
+     * Removes a route. Its cities stay in the graph.
+     *
+     * @param city1 origin city.
+     * @param city2 destination city.
+     * @return true if there was such a route.
+     */
+    public synchronized boolean removeRoute(String city1, String city2) {
+        RouteGraph routes = current();
+        RouteGraph changed = routes.withoutRoute(city1.toUpperCase(), city2.toUpperCase());
+        update(changed);
+        return changed != routes;
+    }
+
+    private RouteGraph current() {
+        RouteGraph routes = this.routes;
+        if (routes == null) throw new IllegalStateException("No records have been loaded");
+        return routes;
+    }
+
+    // The table is published before the graph, and queries check the two match, so none mixes them up.
+    private void update(RouteGraph changed) {
+        AllPairsTable table = allPairs;
+        if (table != null) allPairs = table.refresh(changed, ForkJoinPool.commonPool());
+        routes = changed;
+    }
+
+    public SearchMode getSearchMode() {
+        return mode;
+    }
+
+    /**
+     * @param mode how later queries search the route graph.
+     */
+    public void setSearchMode(SearchMode mode) {
+        this.mode = Objects.requireNonNull(mode);
     }
 
     /**
      * Takes the input cities and finds the shortest path between them - if there is a path between the cities.
+     * Safe to call from any number of threads at once.
      *
      * @param city1 first city.
      * @param city2 second city.
      * @return the result of the calculations.
      */
     public String checkItinerary(String city1, String city2) {
+        return checkItinerary(city1, city2, RouteGraph.ALL_MONTHS);
+    }
+
+    /**
+     * Takes the input cities and finds the shortest path between them using only the routes that operated
+     * in the given month.
+     * Safe to call from any number of threads at once.
+     *
+     * @param city1 first city.
+     * @param city2 second city.
+     * @param yearMonth the month as yyyymm, such as 201812, or RouteGraph.ALL_MONTHS for every route.
+     * @return the result of the calculations.
+     * @throws IllegalArgumentException if the month is not yyyymm, or the records have no months.
+     */
+    public String checkItinerary(String city1, String city2, int yearMonth) {
         System.out.println("Searching Itineraries...");
         city1 = city1.toUpperCase();
         city2 = city2.toUpperCase();
 
-        if (!origin.contains(city1)) {
+        // Reads the graph once, so a concurrent reload cannot change it part way through the query.
+        RouteGraph routes = this.routes;
+        int source = routes == null ? -1 : routes.id(city1);
+        int target = routes == null ? -1 : routes.id(city2);
+        if (source < 0 || routes.outDegree(source) == 0) {
             return "Origin city: " + city1 + " doesn't exist!";
         }
-        if (!destination.contains(city2)) {
+        if (target < 0 || routes.inDegree(target) == 0) {
             return "Destination city: " + city2 + " doesn't exist!";
         }
 
-        for (Node n : graph) {
-            if (n.getName().equals(city1)) {
-                getPath(n);
-            }
+        Itinerary itinerary = target == source ? null : search(routes, source, target, yearMonth);
+        if (itinerary == null) {
+            return "\nThese 2 cities are not connected.";
         }
-
-        if (unique.containsKey(city2) && !unique.get(city2).getShortestPath().isEmpty()) {
-            String result = unique.get(city2).getShortestPath().stream()
-                    .map(String::valueOf)
-                    .collect(Collectors.joining(" -> ", "",""));
-            return ("\nFlight itinerary: " + result + " -> " + city2.toUpperCase() + " | " + unique.get(city2).getDist() + " GC_KM");
-        }
-        return "\nThese 2 cities are not connected.";
+        return "\nFlight itinerary: " + itinerary;
     }
 
     /**
-     * Used to add shortest path attributes to nodes.
+     * Finds the shortest route between two cities.
+     * Safe to call from any number of threads at once.
      *
-     * @param source the source location for where all paths will be mapped from.
+     * @param city1 origin city.
+     * @param city2 destination city.
+     * @return the route, or null if the cities are not connected. A city's route to itself has one stop.
+     * @throws IllegalArgumentException if either city is not in the loaded records.
+     * @throws IllegalStateException if no records have been loaded.
      */
-    public static void getPath(Node source) {
-        source.setDist(0);
-
-        // Known minimum distance from the source.
-        Set<Node> setNodes = new HashSet<>();
-        // Gathers nodes that can be reached from the source.
-        Set<Node> unsetNodes = new HashSet<>();
+    public Itinerary findItinerary(String city1, String city2) {
+        return findItinerary(city1, city2, RouteGraph.ALL_MONTHS);
+    }
 
-        unsetNodes.add(source);
+    /**
+     * Finds the shortest route between two cities using only the routes that operated in the given month.
+     * Safe to call from any number of threads at once.
+     *
+     * @param city1 origin city.
+     * @param city2 destination city.
+     * @param yearMonth the month as yyyymm, or RouteGraph.ALL_MONTHS for every route.
+     * @return the route, or null if the cities are not connected in that month.
+     * @throws IllegalArgumentException if either city is not in the loaded records, the month is not yyyymm,
+     *                                  or the records have no months.
+     * @throws IllegalStateException if no records have been loaded.
+     */
+    public Itinerary findItinerary(String city1, String city2, int yearMonth) {
+        RouteGraph routes = current();
+        int source = routes.id(city1.toUpperCase()), target = routes.id(city2.toUpperCase());
+        if (source < 0) throw new IllegalArgumentException("Origin city: " + city1 + " doesn't exist!");
+        if (target < 0) throw new IllegalArgumentException("Destination city: " + city2 + " doesn't exist!");
+        return search(routes, source, target, yearMonth);
+    }
 
-        while (unsetNodes.size() != 0) {
-            // The adjacent node with the closest proximity.
-            Node currentNode = getLowestDistanceNode(unsetNodes);
-            unsetNodes.remove(currentNode);
+    /**
+     * Finds the k shortest routes between two cities that meet the given constraints, such as a limit on
+     * stopovers, cities to avoid or the fewest seats on each leg. No route visits a city twice.
+     * Safe to call from any number of threads at once.
+     *
+     * @param city1 origin city.
+     * @param city2 destination city.
+     * @param k the most routes to return.
+     * @param constraints limits on the routes, or ItineraryConstraints.NONE.
+     * @return up to k routes, shortest first; empty if none meets the constraints.
+     * @throws IllegalArgumentException if either city is not in the loaded records, k is less than 1,
+     *                                  or the constraints give a month the records cannot use.
+     * @throws IllegalStateException if no records have been loaded.
+     */
+    public List<Itinerary> findItineraries(String city1, String city2, int k, ItineraryConstraints constraints) {
+        RouteGraph routes = current();
+        int source = routes.id(city1.toUpperCase()), target = routes.id(city2.toUpperCase());
+        if (source < 0) throw new IllegalArgumentException("Origin city: " + city1 + " doesn't exist!");
+        if (target < 0) throw new IllegalArgumentException("Destination city: " + city2 + " doesn't exist!");
+        return routes.shortestItineraries(source, target, k, constraints);
+    }
 
-            for (Map.Entry<Node, Integer> adjacencyPair:
-                    currentNode.getAdjNodes().entrySet()) {
+    /**
+     * Finds the shortest routes from a city to every other city.
+     * Safe to call from any number of threads at once.
+     *
+     * @param city origin city.
+     * @return the routes from the city.
+     * @throws IllegalArgumentException if the city is not in the loaded records.
+     * @throws IllegalStateException if no records have been loaded.
+     */
+    public ShortestPathTree findRoutesFrom(String city) {
+        return findRoutesFrom(city, RouteGraph.ALL_MONTHS);
+    }
 
-                // Gets the destination and distance for the closest adjacent node.
-                Node adjacentNode = adjacencyPair.getKey();
-                Integer edgeWeight = adjacencyPair.getValue();
+    /**
+     * Finds the shortest routes from a city to every other city using only the routes that operated
+     * in the given month.
+     * Safe to call from any number of threads at once.
+     *
+     * @param city origin city.
+     * @param yearMonth the month as yyyymm, or RouteGraph.ALL_MONTHS for every route.
+     * @return the routes from the city.
+     * @throws IllegalArgumentException if the city is not in the loaded records, the month is not yyyymm,
+     *                                  or the records have no months.
+     * @throws IllegalStateException if no records have been loaded.
+     */
+    public ShortestPathTree findRoutesFrom(String city, int yearMonth) {
+        RouteGraph routes = current();
+        int source = routes.id(city.toUpperCase());
+        if (source < 0) throw new IllegalArgumentException("Origin city: " + city + " doesn't exist!");
+        ShortestPathTree tree = cache == null ? null : cache.getTree(routes, source, yearMonth);
+        if (tree != null) return tree;
 
-                if (!setNodes.contains(adjacentNode)) {
-                    calculateMinDist(adjacentNode, edgeWeight, currentNode);
-                    unsetNodes.add(adjacentNode);
-                }
-            }
-            setNodes.add(currentNode);
+        SearchContext ctx = routes.acquire();
+        try {
+            routes.shortestPaths(source, yearMonth, ctx);
+            tree = new ShortestPathTree(routes, source, ctx);
+        } finally {
+            routes.release(ctx);
         }
+        if (cache != null) cache.putTree(routes, yearMonth, tree);
+        return tree;
     }
 
     /**
-     * Returns the node with the shortest distance from the unsetNodes set.
-     *
-     * @param unsetNodes set of nodes.
-     * @return the node with the shortest distance in a set.
-     */
-    public static Node getLowestDistanceNode(Set<Node> unsetNodes) {
-        Node shortDistNode = null;
-        int shortestDist = Integer.MAX_VALUE;
-        // Loops through the Set of nodes to find the node with the lowest distance.
-        for (Node node: unsetNodes) {
-            int nodeDist = node.getDist();
-            if (nodeDist < shortestDist) {
-                shortestDist = nodeDist;
-                shortDistNode = node;
-            }
+     * Answers a query from the all-pairs table or the cache when possible; otherwise searches
+     * and caches the answer, including the answer that the cities are not connected.
+     */
+    private Itinerary search(RouteGraph routes, int source, int target, int yearMonth) {
+        AllPairsTable table = allPairs;
+        if (yearMonth == RouteGraph.ALL_MONTHS && table != null && table.graph() == routes) {
+            return table.itinerary(source, target);
         }
-        return shortDistNode;
+        if (cache == null) return searchGraph(routes, source, target, yearMonth);
+
+        // A cached tree of the origin also answers the query; either way the cache counts one hit or miss.
+        Optional<Itinerary> cached = cache.getItinerary(routes, source, target, yearMonth);
+        if (cached != null) return cached.orElse(null);
+        Itinerary itinerary = searchGraph(routes, source, target, yearMonth);
+        cache.putItinerary(routes, source, target, yearMonth, itinerary);
+        return itinerary;
     }
 
-    /**
-     * Checks whether the newly calculated distance is shorter than the actual distance.
-     *
-     * @param evaluationNode the node adjacent to the previously tested node that needs to be evaluated.
-     * @param edgeWeigh the distance of the node adjacent to the previously tested node.
-     * @param sourceNode the previously tested node.
-     */
-    private static void calculateMinDist(Node evaluationNode,
-                                         Integer edgeWeigh, Node sourceNode) {
-        Integer sourceDistance = sourceNode.getDist();
-
-        if (sourceDistance + edgeWeigh < evaluationNode.getDist()) {
-            evaluationNode.setDist(sourceDistance + edgeWeigh);
-            LinkedList<Node> shortestPath = new LinkedList<>(sourceNode.getShortestPath());
-            shortestPath.add(sourceNode);
-            evaluationNode.setShortestPath(shortestPath);
+    private Itinerary searchGraph(RouteGraph routes, int source, int target, int yearMonth) {
+        SearchContext ctx = routes.acquire();
+        try {
+            if (mode == SearchMode.BIDIRECTIONAL) {
+                SearchContext backward = routes.acquire();
+                try {
+                    int meet = routes.meetingPoint(source, target, yearMonth, ctx, backward);
+                    return Itinerary.fromMeeting(routes, ctx, backward, meet);
+                } finally {
+                    routes.release(backward);
+                }
+            }
+            if (mode == SearchMode.A_STAR) routes.guidedPath(source, target, yearMonth, ctx);
+            else routes.shortestPath(source, target, yearMonth, ctx);
+            return Itinerary.fromSearch(routes, ctx, target);
+        } finally {
+            routes.release(ctx);
         }
     }
 
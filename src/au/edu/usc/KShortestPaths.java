@@ -0,0 +1,284 @@
+package au.edu.usc;
+
+import java.util.*;
+
+/**
+ * Yen's algorithm for the k shortest itineraries between two cities that visit no city twice, under a set of
+ * {@link ItineraryConstraints}. Each itinerary after the first is found by taking every prefix (the root) of the
+ * one before and searching for the shortest way on from the root's last city (the spur) that leaves it by a route
+ * no earlier itinerary with the same root took, without going back through the root.
+ * <p>
+ * The spur searches share their work:
+ * <ul>
+ * <li>one backward Dijkstra from the destination over the allowed routes gives every city's distance to the
+ * destination, and a breadth-first search its fewest legs. Taking away roots and routes can only make these
+ * longer, so the distance is a consistent A* estimate for every spur search and both are lower bounds for every
+ * spur;</li>
+ * <li>once enough candidates are held, a spur whose root plus its lower bound is longer than all of them is not
+ * searched, and a spur search stops expanding past that length;</li>
+ * <li>as Lawler noted, an itinerary only needs spurs from the city where it left the itinerary it came from,
+ * since the earlier spurs have the same roots and were already searched.</li>
+ * </ul>
+ * With a stopover limit the spur searches run over (city, legs) states, and a state is kept only if it reaches
+ * its city in fewer legs than every state settled there before it, so a path never visits a city twice.
+ *
+ * @author Joseph Thurlow
+ */
+final class KShortestPaths {
+
+    private static final Comparator<Path> ORDER = Comparator.<Path>comparingLong(p -> p.cost)
+            .thenComparingInt(p -> p.stops.length)
+            .thenComparing((a, b) -> Arrays.compare(a.stops, b.stops));
+
+    private final RouteGraph graph;
+    private final int n;
+    private final int target;
+    private final int bit;
+    private final int minSeats;
+    private final double minLoadFactor;
+    private final boolean[] avoided;
+    // Most legs an itinerary may have, and the legs tracked per city: 1 when the number of legs is not limited.
+    private final int maxLegs;
+    private final int layers;
+    // Lower bounds from each city to the target over the allowed routes: distance and legs.
+    private final int[] toTarget;
+    private final int[] legsToTarget;
+
+    // Spur search state, indexed by city * layers + legs and valid when stamped with the current query.
+    private final int[] dist;
+    private final int[] pred;
+    private final int[] stamp;
+    private final IndexedMinHeap heap;
+    private final int[] settledLegs;
+    private final boolean[] banned;
+    private final boolean[] blocked;
+    private int query;
+
+    private static final class Path {
+        final int[] stops;
+        final int[] legs;
+        final long cost;
+        // Index of the stop where the path left the path it was found from.
+        final int deviation;
+
+        Path(int[] stops, int[] legs, long cost, int deviation) {
+            this.stops = stops;
+            this.legs = legs;
+            this.cost = cost;
+            this.deviation = deviation;
+        }
+    }
+
+    private KShortestPaths(RouteGraph graph, int target, ItineraryConstraints constraints) {
+        this.graph = graph;
+        this.n = graph.nodeCount();
+        this.target = target;
+        this.bit = graph.monthBit(constraints.yearMonth());
+        this.minSeats = constraints.minSeats();
+        this.minLoadFactor = constraints.minLoadFactor();
+        avoided = new boolean[n];
+        for (String city : constraints.avoidedCities()) {
+            int id = graph.id(city);
+            if (id >= 0) avoided[id] = true;
+        }
+        // A path that visits no city twice has at most n - 1 legs, so larger limits change nothing.
+        long legs = (long) constraints.maxStopovers() + 1;
+        maxLegs = legs >= n - 1 ? Integer.MAX_VALUE : (int) legs;
+        layers = maxLegs == Integer.MAX_VALUE ? 1 : maxLegs + 1;
+
+        toTarget = new int[n];
+        legsToTarget = new int[n];
+        boundsToTarget();
+
+        dist = new int[n * layers];
+        pred = new int[n * layers];
+        stamp = new int[n * layers];
+        heap = new IndexedMinHeap(n * layers);
+        settledLegs = new int[n];
+        banned = new boolean[n];
+        blocked = new boolean[n];
+    }
+
+    /**
+     * @param graph the route graph.
+     * @param source id of the origin city.
+     * @param target id of the destination city.
+     * @param k the most itineraries to return.
+     * @param constraints limits on the itineraries.
+     * @return up to k itineraries, shortest first, or none if the origin is the destination.
+     */
+    static List<Itinerary> find(RouteGraph graph, int source, int target, int k, ItineraryConstraints constraints) {
+        if (k < 1) throw new IllegalArgumentException("k must be at least 1: " + k);
+        if (source == target) return Collections.emptyList();
+        return new KShortestPaths(graph, target, constraints).run(source, k);
+    }
+
+    private List<Itinerary> run(int source, int k) {
+        List<Path> found = new ArrayList<>();
+        if (toTarget[source] == RouteGraph.UNREACHABLE) return Collections.emptyList();
+        Path first = spur(new int[0], new int[0], 0, source, 0, Long.MAX_VALUE);
+        if (first != null) found.add(first);
+        // The best candidates not yet taken; only the k - found.size() best can still be taken.
+        TreeSet<Path> candidates = new TreeSet<>(ORDER);
+
+        while (!found.isEmpty() && found.size() < k) {
+            Path last = found.get(found.size() - 1);
+            int needed = k - found.size();
+            long rootCost = 0;
+            for (int i = 0; i < last.deviation; i++) rootCost += last.legs[i];
+            for (int i = last.deviation; i < last.stops.length - 1; i++) {
+                int spurCity = last.stops[i];
+                long limit = candidates.size() >= needed ? candidates.last().cost : Long.MAX_VALUE;
+                if (rootCost + toTarget[spurCity] <= limit) {
+                    for (int j = 0; j < i; j++) banned[last.stops[j]] = true;
+                    for (Path p : found) {
+                        if (p.stops.length > i + 1 && Arrays.equals(p.stops, 0, i + 1, last.stops, 0, i + 1)) {
+                            blocked[p.stops[i + 1]] = true;
+                        }
+                    }
+                    Path candidate = spur(last.stops, last.legs, i, spurCity, rootCost, limit);
+                    Arrays.fill(banned, false);
+                    Arrays.fill(blocked, false);
+                    if (candidate != null) {
+                        candidates.add(candidate);
+                        if (candidates.size() > needed) candidates.pollLast();
+                    }
+                }
+                rootCost += last.legs[i];
+            }
+            if (candidates.isEmpty()) break;
+            found.add(candidates.pollFirst());
+        }
+
+        List<Itinerary> itineraries = new ArrayList<>(found.size());
+        for (Path p : found) itineraries.add(new Itinerary(graph, p.stops, p.legs, (int) p.cost));
+        return itineraries;
+    }
+
+    // True if route e may be taken: it operates in the month and has the seats and load factor asked for.
+    private boolean allowed(int e) {
+        return graph.operates(e, bit) && graph.routeSeats(e) >= minSeats && graph.routeLoadFactor(e) >= minLoadFactor;
+    }
+
+    // A city may be passed through unless it is avoided; the target is always allowed.
+    private boolean passable(int v) {
+        return v == target || !avoided[v];
+    }
+
+    /**
+     * Fills toTarget with a backward Dijkstra from the target and legsToTarget with a backward breadth-first
+     * search, both over the allowed routes.
+     */
+    private void boundsToTarget() {
+        SearchContext ctx = graph.acquire();
+        try {
+            ctx.reset();
+            IndexedMinHeap queue = ctx.heap();
+            ctx.set(target, 0, -1);
+            queue.offer(target, 0);
+            while (!queue.isEmpty()) {
+                int v = queue.poll();
+                if (!passable(v)) continue;
+                int dv = ctx.dist(v);
+                for (int p = graph.firstInRoute(v); p < graph.firstInRoute(v + 1); p++) {
+                    int u = graph.inRouteSource(p), e = graph.inRoute(p);
+                    if (u == v || !allowed(e)) continue;
+                    int alt = dv + graph.routeWeight(e);
+                    if (alt < ctx.dist(u)) {
+                        ctx.set(u, alt, v);
+                        queue.offer(u, alt);
+                    }
+                }
+            }
+            for (int v = 0; v < n; v++) toTarget[v] = ctx.dist(v);
+        } finally {
+            graph.release(ctx);
+        }
+
+        Arrays.fill(legsToTarget, Integer.MAX_VALUE);
+        int[] order = new int[n];
+        int head = 0, tail = 0;
+        legsToTarget[target] = 0;
+        order[tail++] = target;
+        while (head < tail) {
+            int v = order[head++];
+            if (!passable(v)) continue;
+            for (int p = graph.firstInRoute(v); p < graph.firstInRoute(v + 1); p++) {
+                int u = graph.inRouteSource(p);
+                if (legsToTarget[u] != Integer.MAX_VALUE || !allowed(graph.inRoute(p))) continue;
+                legsToTarget[u] = legsToTarget[v] + 1;
+                order[tail++] = u;
+            }
+        }
+    }
+
+    /**
+     * Searches for the shortest way from the spur city to the target that avoids the banned cities and the
+     * blocked routes out of the spur city, and joins it to the root.
+     *
+     * @param stops stops of the path the root is taken from.
+     * @param legs legs of the path the root is taken from.
+     * @param spurIndex index of the spur city in stops; the root is stops[0] to stops[spurIndex].
+     * @param spurCity the spur city.
+     * @param rootCost distance from the origin to the spur city along the root.
+     * @param limit the longest path worth finding.
+     * @return the whole path, or null if there is none within the limit.
+     */
+    private Path spur(int[] stops, int[] legs, int spurIndex, int spurCity, long rootCost, long limit) {
+        int legsLeft = layers == 1 ? Integer.MAX_VALUE : maxLegs - spurIndex;
+        if (++query == 0) {
+            Arrays.fill(stamp, 0);
+            query = 1;
+        }
+        heap.clear();
+        Arrays.fill(settledLegs, Integer.MAX_VALUE);
+        int start = spurCity * layers;
+        set(start, 0, -1);
+        heap.offer(start, toTarget[spurCity]);
+
+        while (!heap.isEmpty()) {
+            int state = heap.poll();
+            int v = state / layers, l = state % layers;
+            // A state that reaches its city in no fewer legs than an earlier, shorter one can be dropped.
+            if (l >= settledLegs[v]) continue;
+            settledLegs[v] = l;
+            if (v == target) return join(stops, legs, spurIndex, rootCost, state);
+            int dv = dist[state];
+            int next = layers == 1 ? 0 : l + 1;
+            for (int e = graph.firstRoute(v); e < graph.firstRoute(v + 1); e++) {
+                int w = graph.routeTarget(e);
+                if (w == v || banned[w] || v == spurCity && blocked[w] || !passable(w) || !allowed(e)) continue;
+                if (toTarget[w] == RouteGraph.UNREACHABLE || next >= settledLegs[w]) continue;
+                if (legsToTarget[w] > legsLeft - next) continue;
+                long alt = (long) dv + graph.routeWeight(e);
+                if (rootCost + alt + toTarget[w] > limit) continue;
+                int to = w * layers + next;
+                if (stamp[to] != query || alt < dist[to]) {
+                    set(to, (int) alt, state);
+                    heap.offer(to, (int) (alt + toTarget[w]));
+                }
+            }
+        }
+        return null;
+    }
+
+    private void set(int state, int distance, int from) {
+        stamp[state] = query;
+        dist[state] = distance;
+        pred[state] = from;
+    }
+
+    // Joins the root to the spur path ending at the given state.
+    private Path join(int[] stops, int[] legs, int spurIndex, long rootCost, int end) {
+        int count = 0;
+        for (int s = end; s != -1; s = pred[s]) count++;
+        int[] newStops = Arrays.copyOf(stops, spurIndex + count);
+        int[] newLegs = Arrays.copyOf(legs, spurIndex + count - 1);
+        int i = spurIndex + count - 1;
+        for (int s = end; s != -1; s = pred[s], i--) {
+            newStops[i] = s / layers;
+            if (pred[s] != -1) newLegs[i - 1] = dist[s] - dist[pred[s]];
+        }
+        return new Path(newStops, newLegs, rootCost + dist[end], spurIndex);
+    }
+}
@@ -1,7 +1,9 @@
 package au.edu.usc;
 
 import java.io.*;
-import java.util.*;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 
 /**
@@ -9,135 +11,186 @@ import java.util.*;
  *
  * @author Joseph Thurlow
  */
-public class MergeSort {
+public class MergeSort extends RecordSorter {
 
-    private KeySet[] arr;
-    private final List<String> records = new ArrayList<>();
-    private String columnName;
+    // Ranges at or below this size are insertion sorted instead of divided further.
+    private static final int INSERTION_CUTOFF = 32;
+
+    private final int parallelThreshold;
+    private final ForkJoinPool pool;
+
+    /**
+     * Creates a merge sort that splits ranges of more than 8192 keys across the common fork/join pool.
+     */
+    public MergeSort() {
+        this(8192, ForkJoinPool.commonPool());
+    }
 
     /**
-     * Reads the data from the csv file specified in the parameters.
-     * Appends the specified column of data into List.
-     * Creates a List of records containing unedited rows from the csv file for use when retrieving rank.
+     * Creates a merge sort with the given parallel split threshold.
      *
-     * @param file CVS file required for sorting by column.
-     * @param column Specifies the column to sort by.
+     * @param parallelThreshold ranges larger than this are sorted as parallel tasks;
+     *                          Integer.MAX_VALUE keeps the sort on the calling thread.
+     * @param pool the pool the parallel tasks run in.
      */
-    public void sortRecords(String file, int column) throws IOException {
-        List<String> data = new ArrayList<>();
-
-        try {
-            BufferedReader br = new BufferedReader(new FileReader(file));
-            columnName = br.readLine().split(",")[column - 1]; // To skip reading the first line.
-            String line;
-            while ((line = br.readLine()) != null) {
-                records.add(line);
-                // Use comma as separator.
-                String[] cols = line.split(",");
-                data.add(cols[column - 1]);
-            }
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-        }
+    public MergeSort(int parallelThreshold, ForkJoinPool pool) {
+        if (parallelThreshold < 1) throw new IllegalArgumentException("Threshold must be positive: " + parallelThreshold);
+        this.parallelThreshold = parallelThreshold;
+        this.pool = pool;
+    }
 
-        // Append all data to array (arr) as 'set' objects.
-        arr = new KeySet[data.size()];
-        for(int i = 0; i<data.size(); i++) {
-            arr[i] = new KeySet(i, Double.parseDouble(data.get(i)));
+    @Override
+    protected void sort(double[] keys, int[] idx) {
+        // The buffer starts as a copy and then swaps roles with the arrays at every level, so nothing is copied back.
+        double[] keyBuf = keys.clone();
+        int[] idxBuf = idx.clone();
+        if (keys.length <= parallelThreshold || pool.getParallelism() < 2) {
+            mergeSort(keyBuf, idxBuf, keys, idx, 0, keys.length);
+        } else {
+            pool.invoke(new SortTask(keyBuf, idxBuf, keys, idx, 0, keys.length, parallelThreshold));
         }
-
-        // Run the sorting algorithm.
-        long start = System.currentTimeMillis();
-        mergeSort(arr);
-        long result = System.currentTimeMillis() - start;
-
-        System.out.println("\nRuntime of " + this.getClass().getName() + " on " + columnName + ": " + result + "ms\n");
     }
 
     /**
-     * Recursive compare and merge operation for mergeSort function.
+     * Compare and merge operation for mergeSort function.
+     * Merges the two sorted halves of the source range into the destination, taking the left key on ties.
      *
-     * @param left lhs sub-array of arr.
-     * @param right rhs sub-array of arr.
-     * @param arr full array to be merged.
-     * @param leftBound contains the index where the lhs of the array ends.
-     * @param rightBound contains the index where the rhs of the array ends.
+     * @param srcKeys keys with both halves sorted.
+     * @param srcIdx row indexes of srcKeys.
+     * @param keys destination for the merged keys.
+     * @param idx destination for the merged row indexes.
+     * @param low the index where the lhs of the array starts.
+     * @param mid the index where the lhs of the array ends and the rhs starts.
+     * @param high the index where the rhs of the array ends.
      */
-    private static void merge(KeySet[] left, KeySet[] right, KeySet[] arr, int leftBound, int rightBound) {
-        int leftIdx = 0, rightIdx = 0, arrIdx = 0;
+    private static void merge(double[] srcKeys, int[] srcIdx, double[] keys, int[] idx, int low, int mid, int high) {
+        int leftIdx = low, rightIdx = mid, arrIdx = low;
 
-        while (leftIdx < leftBound && rightIdx < rightBound) {
-            if(left[leftIdx].getVal() <= right[rightIdx].getVal()) arr[arrIdx++] = left[leftIdx++];
-            else arr[arrIdx++] = right[rightIdx++];
+        // Already in order, a straight copy is enough.
+        if (srcKeys[mid - 1] <= srcKeys[mid]) {
+            System.arraycopy(srcKeys, low, keys, low, high - low);
+            System.arraycopy(srcIdx, low, idx, low, high - low);
+            return;
+        }
+
+        while (leftIdx < mid && rightIdx < high) {
+            if (srcKeys[leftIdx] <= srcKeys[rightIdx]) {
+                keys[arrIdx] = srcKeys[leftIdx];
+                idx[arrIdx++] = srcIdx[leftIdx++];
+            } else {
+                keys[arrIdx] = srcKeys[rightIdx];
+                idx[arrIdx++] = srcIdx[rightIdx++];
+            }
         }
 
-        while (leftIdx < leftBound) {
-            arr[arrIdx++] = left[leftIdx++];
+        while (leftIdx < mid) {
+            keys[arrIdx] = srcKeys[leftIdx];
+            idx[arrIdx++] = srcIdx[leftIdx++];
         }
 
-        while (rightIdx < rightBound) {
-            arr[arrIdx++] = right[rightIdx++];
+        while (rightIdx < high) {
+            keys[arrIdx] = srcKeys[rightIdx];
+            idx[arrIdx++] = srcIdx[rightIdx++];
         }
     }
 
     /**
      * The main recursive merge sort operation.
+     * The source and destination hold the same keys on entry; on return the destination range is sorted.
+     * Each level sorts its halves into the source and merges them back, swapping the roles of the arrays.
      *
-     * @param arr Array to complete the merge sort algorithm on.
+     * @param srcKeys working copy of the keys.
+     * @param srcIdx working copy of the row indexes.
+     * @param keys Array to complete the merge sort algorithm on.
+     * @param idx row indexes moved alongside keys.
+     * @param low first index of the range to sort.
+     * @param high index after the last index of the range to sort.
      */
-    private static void mergeSort(KeySet[] arr) {
-        int n = arr.length;
-        if (n < 2) return;
+    private static void mergeSort(double[] srcKeys, int[] srcIdx, double[] keys, int[] idx, int low, int high) {
+        if (high - low <= INSERTION_CUTOFF) {
+            insertSort(keys, idx, low, high);
+            return;
+        }
 
         // Recursively divide the array into halves.
-        int mid = n/2;
-        KeySet[] left = Arrays.copyOfRange(arr, 0, mid);
-        KeySet[] right = Arrays.copyOfRange(arr, mid, n);
+        int mid = (low + high) >>> 1;
 
-        mergeSort(left);
-        mergeSort(right);
+        mergeSort(keys, idx, srcKeys, srcIdx, low, mid);
+        mergeSort(keys, idx, srcKeys, srcIdx, mid, high);
 
         // Merge both sides together.
-        merge(left, right, arr, mid, n - mid);
+        merge(srcKeys, srcIdx, keys, idx, low, mid, high);
     }
 
     /**
-     * Returns the flight records with the given ranking order.
+     * Stable sort of one range of the arrays, for other algorithms that need a fallback.
      *
-     * @param rank Specifies the rank of the records desired.
+     * @param keys array to be sorted.
+     * @param idx row indexes moved alongside keys.
+     * @param low first index of the range.
+     * @param high index after the last index of the range.
      */
-    public void get(int rank) {
-        // Checks to make sure the records are imported and sorted before rank lookup.
-        if (arr == null) {
-            System.out.println("Records must be imported and sorted before rank is called!");
-            return;
+    static void sortRange(double[] keys, int[] idx, int low, int high) {
+        double[] rangeKeys = Arrays.copyOfRange(keys, low, high);
+        int[] rangeIdx = Arrays.copyOfRange(idx, low, high);
+        mergeSort(rangeKeys.clone(), rangeIdx.clone(), rangeKeys, rangeIdx, 0, rangeKeys.length);
+        System.arraycopy(rangeKeys, 0, keys, low, rangeKeys.length);
+        System.arraycopy(rangeIdx, 0, idx, low, rangeIdx.length);
+    }
+
+    /**
+     * Stable insertion sort used for small ranges.
+     *
+     * @param keys array to be sorted.
+     * @param idx row indexes moved alongside keys.
+     * @param low first index of the range.
+     * @param high index after the last index of the range.
+     */
+    private static void insertSort(double[] keys, int[] idx, int low, int high) {
+        for (int i = low + 1; i < high; i++) {
+            double key = keys[i];
+            int keyIdx = idx[i];
+            int j = i - 1;
+            while (j >= low && keys[j] > key) {
+                keys[j + 1] = keys[j];
+                idx[j + 1] = idx[j];
+                j--;
+            }
+            keys[j + 1] = key;
+            idx[j + 1] = keyIdx;
         }
+    }
 
-        // Finds and prints records with the desired rank.
-        if (rank == 0) {
-            System.out.println(Arrays.toString(arr)); // Prints the entire ordered list of keys and values.
-        } else if (rank < 0) {
-            System.out.println("ERROR: Invalid rank input.");
-        } else {
-            System.out.println("RECORDS for " + columnName + " at RANK " + rank + ":");
-            int iterateRank = 1;
-            boolean recordFound = false;
-            double currentVal = arr[arr.length - 1].getVal();
-
-            for (int i = arr.length - 1; i > -1; i--) {
-
-                if (currentVal != arr[i].getVal()) {
-                    if (recordFound) break;
-                    currentVal = arr[i].getVal();
-                    iterateRank++;
-                }
-
-                if (rank == iterateRank) {
-                    recordFound = true;
-                    System.out.println("ROW " + (arr[i].getIdx() + 2) + ": " + records.get(arr[i].getIdx()));
-                }
+    /**
+     * Fork/join task sorting both halves of a range in parallel before merging them.
+     */
+    private static class SortTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final double[] srcKeys, keys;
+        private final int[] srcIdx, idx;
+        private final int low, high, threshold;
+
+        SortTask(double[] srcKeys, int[] srcIdx, double[] keys, int[] idx, int low, int high, int threshold) {
+            this.srcKeys = srcKeys;
+            this.srcIdx = srcIdx;
+            this.keys = keys;
+            this.idx = idx;
+            this.low = low;
+            this.high = high;
+            this.threshold = threshold;
+        }
+
+        @Override
+        protected void compute() {
+            if (high - low <= threshold) {
+                mergeSort(srcKeys, srcIdx, keys, idx, low, high);
+                return;
             }
-            if (!recordFound) System.out.println("No RECORDS found for " + columnName + " at RANK " + rank + "!");
+            int mid = (low + high) >>> 1;
+            invokeAll(new SortTask(keys, idx, srcKeys, srcIdx, low, mid, threshold),
+                    new SortTask(keys, idx, srcKeys, srcIdx, mid, high, threshold));
+            merge(srcKeys, srcIdx, keys, idx, low, mid, high);
         }
     }
 
@@ -146,7 +199,7 @@ public class MergeSort {
         sort.sortRecords("./dataset/dom_citypairs_web.csv", 6);
 
         // Change parameter value below to get records according to rank.
-        // Note: The parameter value 0 will print a sorted list of all the Set objects
+        // Note: The parameter value 0 will print a sorted list of all the keys
         // The format for a set is {original_array_index, value}.
         sort.get(5);
 
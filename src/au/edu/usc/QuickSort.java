@@ -1,142 +1,248 @@
 package au.edu.usc;
 
 import java.io.*;
-import java.util.*;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * Quick sort implementation for sorting historical records of passenger flights.
+ * Equal keys are ordered by row index, so ties keep their row order as in the other sort engines.
  *
  * @author Joseph Thurlow
  */
-public class QuickSort {
+public class QuickSort extends RecordSorter {
 
-    private KeySet[] arr;
-    private final List<String> records = new ArrayList<>();
-    private String columnName;
+    // Ranges at or below this size are insertion sorted.
+    private static final int INSERTION_CUTOFF = 24;
+    // Ranges above this size pick their pivot as the median of three medians (Tukey's ninther).
+    private static final int NINTHER_CUTOFF = 128;
+
+    private final int parallelThreshold;
+    private final ForkJoinPool pool;
+
+    /**
+     * Creates a quick sort that sorts partitions of more than 8192 keys as parallel tasks on the common pool.
+     */
+    public QuickSort() {
+        this(8192, ForkJoinPool.commonPool());
+    }
 
     /**
-     * Reads the data from the csv file specified in the parameters.
-     * Appends the specified column of data into List.
-     * Creates a List of records containing unedited rows from the csv file for use when retrieving rank.
+     * Creates a quick sort with the given parallel split threshold.
      *
-     * @param file CVS file required for sorting by column.
-     * @param column Specifies the column to sort by.
+     * @param parallelThreshold partitions larger than this are sorted as parallel tasks;
+     *                          Integer.MAX_VALUE keeps the sort on the calling thread.
+     * @param pool the pool the parallel tasks run in.
      */
-    public void sortRecords(String file, int column) throws IOException {
-        List<String> data = new ArrayList<>();
-
-        try {
-            BufferedReader br = new BufferedReader(new FileReader(file));
-            columnName = br.readLine().split(",")[column - 1]; // To skip reading the first line.
-            String line;
-            while ((line = br.readLine()) != null) {
-                records.add(line);
-                // Use comma as separator.
-                String[] cols = line.split(",");
-                data.add(cols[column - 1]);
-            }
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-        }
+    public QuickSort(int parallelThreshold, ForkJoinPool pool) {
+        if (parallelThreshold < 1) throw new IllegalArgumentException("Threshold must be positive: " + parallelThreshold);
+        this.parallelThreshold = parallelThreshold;
+        this.pool = pool;
+    }
 
-        // Append all data to array (arr) as 'set' objects.
-        arr = new KeySet[data.size()];
-        for(int i = 0; i<data.size(); i++) {
-            arr[i] = new KeySet(i, Double.parseDouble(data.get(i)));
+    @Override
+    protected void sort(double[] keys, int[] idx) {
+        int depthLimit = 2 * (32 - Integer.numberOfLeadingZeros(Math.max(keys.length, 1)));
+        if (keys.length <= parallelThreshold || pool.getParallelism() < 2) {
+            quickSort(keys, idx, 0, keys.length-1, depthLimit);
+        } else {
+            pool.invoke(new SortTask(keys, idx, 0, keys.length-1, depthLimit, parallelThreshold));
         }
+    }
 
-        // Run the sorting algorithm.
-        long start = System.currentTimeMillis();
-        quickSort(arr, 0, arr.length-1);
-        long result = System.currentTimeMillis() - start;
+    /**
+     * Picks the pivot value for a range: the median of the first, middle and last keys,
+     * or for large ranges the median of three such medians spread across the range.
+     *
+     * @param keys the array to be sorted.
+     * @param low the lowest index of the range.
+     * @param high the highest index of the range.
+     * @return the pivot value.
+     */
+    private static double pivot(double[] keys, int low, int high) {
+        int mid = (low + high) >>> 1;
+        if (high - low < NINTHER_CUTOFF) {
+            return median(keys[low], keys[mid], keys[high]);
+        }
+        int step = (high - low) / 8;
+        return median(median(keys[low], keys[low + step], keys[low + 2 * step]),
+                median(keys[mid - step], keys[mid], keys[mid + step]),
+                median(keys[high - 2 * step], keys[high - step], keys[high]));
+    }
 
-        System.out.println("\nRuntime of " + this.getClass().getName() + " on " + columnName + ": " + result + "ms\n");
+    private static double median(double a, double b, double c) {
+        if (a < b) {
+            if (b < c) return b;
+            return a < c ? c : a;
+        }
+        if (a < c) return a;
+        return b < c ? c : b;
     }
 
     /**
-     * Swaps the elements so that any elements less than the pivot are on the left
-     * and elements more than the pivot ar on the right.
+     * Three-way partition: swaps the elements so that any elements less than the pivot are on the left,
+     * elements equal to the pivot are in the middle and elements more than the pivot are on the right.
+     * Runs of equal keys are therefore finished in a single pass, apart from putting their rows in order.
      *
-     * @param arr the array to be sorted.
+     * @param keys the array to be sorted.
+     * @param idx row indexes swapped alongside keys.
      * @param low the lowest index of the unsorted part of the array.
      * @param high the highest index of the unsorted part of the array.
-     * @return the index for the pivot point after sorting.
+     * @return the first and last index of the keys equal to the pivot, packed as (first << 32) | last.
      */
-    private static int part(KeySet[] arr, int low, int high) {
-        KeySet pivot = arr[high]; // The pivot is the last element in the array.
-        int i = (low-1);
-
-        for (int j = low; j < high; j++) {
-            if (arr[j].getVal() <= pivot.getVal()) {
-                i++;
+    private static long part(double[] keys, int[] idx, int low, int high) {
+        double pivot = pivot(keys, low, high);
+        int lt = low, i = low, gt = high;
 
-                KeySet temp = arr[i];
-                arr[i] = arr[j];
-                arr[j] = temp;
-            }
+        while (i <= gt) {
+            if (keys[i] < pivot) swap(keys, idx, lt++, i++);
+            else if (keys[i] > pivot) swap(keys, idx, i, gt--);
+            else i++;
         }
+        // Equal non-zero keys are identical, so only their rows need sorting; -0.0 and 0.0 move with their rows.
+        if (pivot != 0) Arrays.sort(idx, lt, gt + 1);
+        else heapSort(keys, idx, lt, gt);
 
-        KeySet temp = arr[i+1];
-        arr[i+1] = arr[high];
-        arr[high] = temp;
+        return ((long) lt << 32) | gt;
+    }
+
+    /**
+     * Swaps two positions of the key array and the row index array.
+     *
+     * @param keys the keys.
+     * @param idx the row indexes.
+     * @param i first position.
+     * @param j second position.
+     */
+    private static void swap(double[] keys, int[] idx, int i, int j) {
+        double tempKey = keys[i];
+        keys[i] = keys[j];
+        keys[j] = tempKey;
 
-        return i+1;
+        int tempIdx = idx[i];
+        idx[i] = idx[j];
+        idx[j] = tempIdx;
     }
 
     /**
-     * The main recursive quick sort operation.
+     * The main quick sort operation.
+     * Recurses into the smaller partition and loops on the larger one, so the stack never grows past O(log n).
+     * Once the depth limit is used up the remaining range is heap sorted, bounding the worst case at O(n log n).
      *
-     * @param arr the array to be sorted.
+     * @param keys the array to be sorted.
+     * @param idx row indexes swapped alongside keys.
      * @param low the first index of the array.
      * @param high the last index of the array.
+     * @param depthLimit partitioning levels left before falling back to heap sort.
      */
-    private static void quickSort(KeySet[] arr, int low, int high) {
-        if (low < high) {
-            int partIdx = part(arr, low, high);
+    private static void quickSort(double[] keys, int[] idx, int low, int high, int depthLimit) {
+        while (high - low >= INSERTION_CUTOFF) {
+            if (depthLimit-- == 0) {
+                heapSort(keys, idx, low, high);
+                return;
+            }
+            long bounds = part(keys, idx, low, high);
+            int lt = (int) (bounds >>> 32), gt = (int) bounds;
 
-            // Starts two recursive calls to part sub-arrays below the pivot and above the pivot
-            quickSort(arr, low, partIdx-1);
-            quickSort(arr, partIdx+1, high);
+            if (lt - low < high - gt) {
+                quickSort(keys, idx, low, lt-1, depthLimit);
+                low = gt+1;
+            } else {
+                quickSort(keys, idx, gt+1, high, depthLimit);
+                high = lt-1;
+            }
         }
+        insertSort(keys, idx, low, high);
     }
 
     /**
-     * Returns the flight records with the given ranking order.
+     * Insertion sort used for small ranges.
      *
-     * @param rank Specifies the rank of the records desired.
+     * @param keys array to be sorted.
+     * @param idx row indexes moved alongside keys.
+     * @param low the first index of the range.
+     * @param high the last index of the range.
      */
-    public void get(int rank) {
-        // Checks to make sure the records are imported and sorted before rank lookup.
-        if (arr == null) {
-            System.out.println("Records must be imported and sorted before rank is called!");
-            return;
+    private static void insertSort(double[] keys, int[] idx, int low, int high) {
+        for (int i = low + 1; i <= high; i++) {
+            double key = keys[i];
+            int keyIdx = idx[i];
+            int j = i - 1;
+            while (j >= low && (keys[j] > key || keys[j] == key && idx[j] > keyIdx)) {
+                keys[j + 1] = keys[j];
+                idx[j + 1] = idx[j];
+                j--;
+            }
+            keys[j + 1] = key;
+            idx[j + 1] = keyIdx;
         }
+    }
 
-        // Finds and prints records with the desired rank.
-        if (rank == 0) {
-            System.out.println(Arrays.toString(arr)); // Prints the entire ordered list of keys and values.
-        } else if (rank < 0) {
-            System.out.println("ERROR: Invalid rank input.");
-        } else {
-            System.out.println("RECORDS for " + columnName + " at RANK " + rank + ":");
-            int iterateRank = 1;
-            boolean recordFound = false;
-            double currentVal = arr[arr.length - 1].getVal();
-
-            for (int i = arr.length - 1; i > -1; i--) {
-
-                if (currentVal != arr[i].getVal()) {
-                    if (recordFound) break;
-                    currentVal = arr[i].getVal();
-                    iterateRank++;
-                }
-
-                if (rank == iterateRank) {
-                    recordFound = true;
-                    System.out.println("ROW " + (arr[i].getIdx() + 2) + ": " + records.get(arr[i].getIdx()));
-                }
+    /**
+     * Heap sort of a range by key and row index, used when partitioning keeps producing unbalanced splits.
+     *
+     * @param keys array to be sorted.
+     * @param idx row indexes moved alongside keys.
+     * @param low the first index of the range.
+     * @param high the last index of the range.
+     */
+    private static void heapSort(double[] keys, int[] idx, int low, int high) {
+        int n = high - low + 1;
+        for (int i = n / 2 - 1; i >= 0; i--) {
+            siftDown(keys, idx, low, i, n);
+        }
+        for (int end = n - 1; end > 0; end--) {
+            swap(keys, idx, low, low + end);
+            siftDown(keys, idx, low, 0, end);
+        }
+    }
+
+    private static void siftDown(double[] keys, int[] idx, int offset, int i, int n) {
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= n) return;
+            if (child + 1 < n && less(keys, idx, offset + child, offset + child + 1)) child++;
+            if (!less(keys, idx, offset + i, offset + child)) return;
+            swap(keys, idx, offset + i, offset + child);
+            i = child;
+        }
+    }
+
+    // Orders by key, then by row index.
+    private static boolean less(double[] keys, int[] idx, int i, int j) {
+        return keys[i] < keys[j] || keys[i] == keys[j] && idx[i] < idx[j];
+    }
+
+    /**
+     * Fork/join task that partitions a range and sorts the two sides in parallel.
+     */
+    private static class SortTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final double[] keys;
+        private final int[] idx;
+        private final int low, high, depthLimit, threshold;
+
+        SortTask(double[] keys, int[] idx, int low, int high, int depthLimit, int threshold) {
+            this.keys = keys;
+            this.idx = idx;
+            this.low = low;
+            this.high = high;
+            this.depthLimit = depthLimit;
+            this.threshold = threshold;
+        }
+
+        @Override
+        protected void compute() {
+            if (high - low < threshold || depthLimit == 0) {
+                quickSort(keys, idx, low, high, depthLimit);
+                return;
             }
-            if (!recordFound) System.out.println("No RECORDS found for " + columnName + " at RANK " + rank + "!");
+            long bounds = part(keys, idx, low, high);
+            int lt = (int) (bounds >>> 32), gt = (int) bounds;
+            invokeAll(new SortTask(keys, idx, low, lt-1, depthLimit-1, threshold),
+                    new SortTask(keys, idx, gt+1, high, depthLimit-1, threshold));
         }
     }
 
@@ -145,7 +251,7 @@ public class QuickSort {
         sort.sortRecords("./dataset/dom_citypairs_web.csv", 6);
 
         // Change parameter value below to get records according to rank.
-        // Note: The parameter value 0 will print a sorted list of all the Set objects
+        // Note: The parameter value 0 will print a sorted list of all the keys
         // The format for a set is {original_array_index, value}.
         sort.get(5);
 
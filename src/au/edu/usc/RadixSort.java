@@ -0,0 +1,195 @@
+package au.edu.usc;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * LSD radix sort implementation for sorting historical records of passenger flights.
+ * Keys are sorted as 64-bit patterns one byte at a time, without comparing keys at all.
+ *
+ * @author Joseph Thurlow
+ */
+public class RadixSort extends RecordSorter {
+
+    private static final int RADIX = 256;
+    private static final int DIGITS = 8;
+
+    private final int parallelThreshold;
+    private final ForkJoinPool pool;
+
+    /**
+     * Creates a radix sort that builds the histograms of arrays with more than 65536 keys in parallel.
+     */
+    public RadixSort() {
+        this(1 << 16, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates a radix sort with the given parallel threshold.
+     *
+     * @param parallelThreshold arrays larger than this have their histograms counted in parallel chunks;
+     *                          Integer.MAX_VALUE keeps the sort on the calling thread.
+     * @param pool the pool the parallel work runs in.
+     */
+    public RadixSort(int parallelThreshold, ForkJoinPool pool) {
+        if (parallelThreshold < 1) throw new IllegalArgumentException("Threshold must be positive: " + parallelThreshold);
+        this.parallelThreshold = parallelThreshold;
+        this.pool = pool;
+    }
+
+    @Override
+    protected void sort(double[] keys, int[] idx) {
+        long[] bits = new long[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            bits[i] = sortableBits(keys[i]);
+        }
+        radixSort(bits, idx);
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = fromSortableBits(bits[i]);
+        }
+    }
+
+    /**
+     * Sorts signed long keys into ascending order, moving each row index with its key.
+     *
+     * @param keys the keys to be sorted.
+     * @param idx the row index of each key.
+     */
+    public void sort(long[] keys, int[] idx) {
+        for (int i = 0; i < keys.length; i++) keys[i] ^= Long.MIN_VALUE;
+        radixSort(keys, idx);
+        for (int i = 0; i < keys.length; i++) keys[i] ^= Long.MIN_VALUE;
+    }
+
+    /**
+     * Maps a double to a long whose unsigned order matches the numeric order of the doubles.
+     * Positive values get their sign bit set; negative values have every bit flipped.
+     * -0.0 is treated as 0.0, as the comparison sorts do.
+     *
+     * @param key the double key.
+     * @return the order-preserving bit pattern.
+     */
+    static long sortableBits(double key) {
+        long bits = Double.doubleToLongBits(key + 0.0);
+        return bits ^ ((bits >> 63) | Long.MIN_VALUE);
+    }
+
+    /**
+     * Reverses {@link #sortableBits(double)}.
+     *
+     * @param bits the order-preserving bit pattern.
+     * @return the double key.
+     */
+    static double fromSortableBits(long bits) {
+        return Double.longBitsToDouble(bits ^ ((~bits >> 63) | Long.MIN_VALUE));
+    }
+
+    /**
+     * The main LSD radix sort operation over unsigned 64-bit keys.
+     * All eight byte histograms are counted in one pass, then each byte is scattered from least to most
+     * significant. Scattering keeps equal digits in their current order, so the sort is stable, and a byte
+     * that is the same for every key is skipped.
+     *
+     * @param keys the unsigned keys to be sorted.
+     * @param idx row indexes moved alongside keys.
+     */
+    private void radixSort(long[] keys, int[] idx) {
+        int n = keys.length;
+        if (n < 2) return;
+
+        int[][] counts = histograms(keys);
+        long[] keyBuf = new long[n];
+        int[] idxBuf = new int[n];
+        long[] srcKeys = keys, dstKeys = keyBuf;
+        int[] srcIdx = idx, dstIdx = idxBuf;
+
+        for (int d = 0; d < DIGITS; d++) {
+            int[] count = counts[d];
+            int shift = d * 8;
+            if (count[(int) (keys[0] >>> shift) & 0xFF] == n) continue;
+
+            // Turn the counts into the first position of each digit.
+            int pos = 0;
+            for (int b = 0; b < RADIX; b++) {
+                int c = count[b];
+                count[b] = pos;
+                pos += c;
+            }
+
+            for (int i = 0; i < n; i++) {
+                int p = count[(int) (srcKeys[i] >>> shift) & 0xFF]++;
+                dstKeys[p] = srcKeys[i];
+                dstIdx[p] = srcIdx[i];
+            }
+
+            long[] tempKeys = srcKeys;
+            srcKeys = dstKeys;
+            dstKeys = tempKeys;
+            int[] tempIdx = srcIdx;
+            srcIdx = dstIdx;
+            dstIdx = tempIdx;
+        }
+
+        // An odd number of passes leaves the result in the buffer.
+        if (srcKeys != keys) {
+            System.arraycopy(srcKeys, 0, keys, 0, n);
+            System.arraycopy(srcIdx, 0, idx, 0, n);
+        }
+    }
+
+    /**
+     * Counts how often each value of each byte occurs, splitting the array across the pool when it is large.
+     *
+     * @param keys the unsigned keys.
+     * @return one 256-entry histogram per byte, least significant first.
+     */
+    private int[][] histograms(long[] keys) {
+        int n = keys.length;
+        int chunks = n > parallelThreshold ? pool.getParallelism() : 1;
+        int[][][] partial = new int[chunks][DIGITS][RADIX];
+
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        for (int c = 0; c < chunks; c++) {
+            final int[][] count = partial[c];
+            final int lo = (int) ((long) n * c / chunks), hi = (int) ((long) n * (c + 1) / chunks);
+            Runnable work = () -> {
+                for (int i = lo; i < hi; i++) {
+                    long key = keys[i];
+                    for (int d = 0; d < DIGITS; d++) {
+                        count[d][(int) (key >>> (d * 8)) & 0xFF]++;
+                    }
+                }
+            };
+            if (chunks == 1) work.run();
+            else tasks.add(pool.submit(work));
+        }
+        for (ForkJoinTask<?> task : tasks) task.join();
+
+        int[][] counts = partial[0];
+        for (int c = 1; c < chunks; c++) {
+            for (int d = 0; d < DIGITS; d++) {
+                for (int b = 0; b < RADIX; b++) counts[d][b] += partial[c][d][b];
+            }
+        }
+        return counts;
+    }
+
+    public static void main(String[] args) throws IOException {
+        RadixSort sort = new RadixSort();
+        sort.sortRecords("./dataset/dom_citypairs_web.csv", 6);
+
+        // Change parameter value below to get records according to rank.
+        // Note: The parameter value 0 will print a sorted list of all the keys
+        // The format for a set is {original_array_index, value}.
+        sort.get(5);
+
+        // Uncomment below for bulk output of records divided by rank.
+//        for (int i = 0; i<20; i++) {
+//            System.out.println("");
+//            sort.get(i+1);
+//        }
+    }
+}
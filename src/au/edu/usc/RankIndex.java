@@ -0,0 +1,175 @@
+package au.edu.usc;
+
+import java.util.Arrays;
+
+/**
+ * Index over a sorted key array that records where each run of equal keys starts.
+ * Rank 1 is the largest key, rank 2 the next largest distinct key and so on, matching the ranks used by
+ * {@link RecordSorter#get(int)}. Built once per sort, it answers rank, value, top-k, percentile and
+ * range lookups in O(1) or O(log n) plus the size of the answer.
+ *
+ * @author Joseph Thurlow
+ */
+public class RankIndex {
+
+    private final double[] keys;
+    private final int[] idx;
+    // Distinct keys in ascending order, and the position in keys where each one's run starts.
+    private final double[] values;
+    private final int[] runStart;
+
+    /**
+     * Builds the index in a single pass over the sorted keys.
+     *
+     * @param keys keys sorted into ascending order.
+     * @param idx the row index of each key.
+     */
+    public RankIndex(double[] keys, int[] idx) {
+        this.keys = keys;
+        this.idx = idx;
+
+        int runs = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (i == 0 || keys[i] != keys[i - 1]) runs++;
+        }
+        values = new double[runs];
+        runStart = new int[runs + 1];
+        int r = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (i == 0 || keys[i] != keys[i - 1]) {
+                values[r] = keys[i];
+                runStart[r++] = i;
+            }
+        }
+        runStart[runs] = keys.length;
+    }
+
+    /**
+     * @return the number of distinct keys, which is also the lowest rank.
+     */
+    public int rankCount() {
+        return values.length;
+    }
+
+    public int rowCount() {
+        return keys.length;
+    }
+
+    /**
+     * @param rank 1-based rank.
+     * @return true if some rows have the rank.
+     */
+    public boolean hasRank(int rank) {
+        return rank >= 1 && rank <= values.length;
+    }
+
+    /**
+     * @param rank 1-based rank.
+     * @return the key shared by the rows with the rank.
+     */
+    public double value(int rank) {
+        return values[run(rank)];
+    }
+
+    /**
+     * @param rank 1-based rank.
+     * @return the number of rows with the rank.
+     */
+    public int count(int rank) {
+        int run = run(rank);
+        return runStart[run + 1] - runStart[run];
+    }
+
+    /**
+     * Returns the rows with the given rank, in the order get(rank) prints them.
+     *
+     * @param rank 1-based rank.
+     * @return the 0-based row numbers.
+     */
+    public int[] rows(int rank) {
+        int run = run(rank);
+        return rowsBetween(runStart[run], runStart[run + 1]);
+    }
+
+    /**
+     * Finds the rank of a key.
+     *
+     * @param value the key to look up.
+     * @return its 1-based rank, or -1 if no row has the key.
+     */
+    public int rankOf(double value) {
+        int run = Arrays.binarySearch(values, value);
+        return run < 0 ? -1 : values.length - run;
+    }
+
+    /**
+     * Returns every row with one of the k highest keys, highest first.
+     *
+     * @param k number of ranks.
+     * @return the 0-based row numbers.
+     */
+    public int[] top(int k) {
+        if (k <= 0) return new int[0];
+        int runs = Math.min(k, values.length);
+        return rowsBetween(runStart[values.length - runs], keys.length);
+    }
+
+    /**
+     * Returns the key at the given percentile using the nearest-rank method.
+     *
+     * @param percent percentile between 0 and 100.
+     * @return the smallest key with at least percent% of the rows at or below it.
+     */
+    public double percentile(double percent) {
+        if (keys.length == 0) throw new IllegalStateException("No rows are indexed");
+        if (percent < 0 || percent > 100) throw new IllegalArgumentException("Percentile out of range: " + percent);
+        int pos = (int) Math.ceil(percent / 100 * keys.length) - 1;
+        return keys[Math.max(pos, 0)];
+    }
+
+    /**
+     * Returns the rows whose key lies between two values, highest key first.
+     *
+     * @param low smallest key included.
+     * @param high largest key included.
+     * @return the 0-based row numbers.
+     */
+    public int[] range(double low, double high) {
+        if (low > high) return new int[0];
+        return rowsBetween(lowerBound(low), upperBound(high));
+    }
+
+    // Position of the first key not less than value.
+    private int lowerBound(double value) {
+        int lo = 0, hi = keys.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keys[mid] < value) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    // Position of the first key greater than value.
+    private int upperBound(double value) {
+        int lo = 0, hi = keys.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keys[mid] <= value) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    // Rows of the sorted positions [from, to), walked from the end as get(rank) does.
+    private int[] rowsBetween(int from, int to) {
+        int[] rows = new int[to - from];
+        for (int i = to - 1, j = 0; i >= from; i--) rows[j++] = idx[i];
+        return rows;
+    }
+
+    private int run(int rank) {
+        if (!hasRank(rank)) throw new IllegalArgumentException("Rank " + rank + " is out of range 1.." + values.length);
+        return values.length - rank;
+    }
+}
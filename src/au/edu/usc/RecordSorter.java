@@ -0,0 +1,314 @@
+package au.edu.usc;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Shared loading and rank lookup for the sorting algorithms.
+ * Subclasses only provide the sort itself; the flight records come from a {@link FlightTable}
+ * so the csv is parsed once no matter how many columns are sorted.
+ *
+ * @author Joseph Thurlow
+ */
+public abstract class RecordSorter {
+
+    // Sorted keys and, at the same position, the row each key came from.
+    protected double[] keys;
+    protected int[] idx;
+    protected FlightTable table;
+    protected String columnName;
+    protected RankIndex index;
+    // What the keys were made from: one column, or several when order is not null.
+    private int column;
+    private List<SortKey> order;
+    // First row of each table added by ingest, and the file it came from, for the row labels.
+    private final List<Integer> partStarts = new ArrayList<>();
+    private final List<String> partNames = new ArrayList<>();
+
+    /**
+     * Loads the csv file specified in the parameters (only the first time it is used)
+     * and sorts its records by the given column.
+     *
+     * @param file CVS file required for sorting by column.
+     * @param column Specifies the column to sort by.
+     */
+    public void sortRecords(String file, int column) throws IOException {
+        sortRecords(FlightTable.load(file), column);
+    }
+
+    /**
+     * Sorts the records of an already loaded table by the given column.
+     *
+     * @param table the loaded flight records.
+     * @param column Specifies the column to sort by.
+     */
+    public void sortRecords(FlightTable table, int column) {
+        this.column = column;
+        order = null;
+        sortKeys(table, table.columnName(column), table.keys(column));
+    }
+
+    /**
+     * Loads the csv file specified in the parameters (only the first time it is used)
+     * and sorts its records by several columns.
+     *
+     * @param file CVS file required for sorting by column.
+     * @param order columns to rank by, most significant first.
+     */
+    public void sortRecords(String file, List<SortKey> order) throws IOException {
+        sortRecords(FlightTable.load(file), order);
+    }
+
+    /**
+     * Sorts the records of an already loaded table by several columns, e.g. Year descending, then
+     * Passenger_Load_Factor descending, then City1 ascending. Rank 1 is the first row in that order.
+     *
+     * @param table the loaded flight records.
+     * @param order columns to rank by, most significant first.
+     */
+    public void sortRecords(FlightTable table, List<SortKey> order) {
+        this.order = new ArrayList<>(order);
+        StringBuilder name = new StringBuilder();
+        for (SortKey key : order) {
+            if (name.length() > 0) name.append(", ");
+            name.append(table.columnName(key.getColumn())).append(key.isDescending() ? " desc" : " asc");
+        }
+        sortKeys(table, name.toString(), CompositeKey.encode(table, order));
+    }
+
+    /**
+     * Sorts the given keys, one per table row, and indexes the result for rank lookups.
+     *
+     * @param table the loaded flight records.
+     * @param name description of the sort order.
+     * @param keys one key per row; the sort takes ownership of the array.
+     */
+    private void sortKeys(FlightTable table, String name, double[] keys) {
+        this.table = table;
+        columnName = name;
+        partStarts.clear();
+        partNames.clear();
+
+        // Pairs the keys with the identity row permutation.
+        this.keys = keys;
+        idx = new int[keys.length];
+        for (int i = 0; i < idx.length; i++) {
+            idx[i] = i;
+        }
+
+        // Run the sorting algorithm.
+        long start = System.currentTimeMillis();
+        sort(keys, idx);
+        long result = System.currentTimeMillis() - start;
+        index = new RankIndex(keys, idx);
+
+        System.out.println("\nRuntime of " + this.getClass().getName() + " on " + columnName + ": " + result + "ms\n");
+    }
+
+    /**
+     * Adds the records of another csv file, such as a new month of the history, to the sorted records.
+     * Only the new rows are sorted; they are then merged with the rows already sorted in one linear pass,
+     * as a log-structured store merges a new run, and the rank index is rebuilt from the merged keys.
+     * Rows with equal keys keep the old rows first, so a stable sort gives the same ranks as sorting both
+     * files together.
+     * <p>
+     * Adding d rows to n sorted rows costs O(d log d) for the sort, plus one sequential copy of the n old keys
+     * and rows into the merged arrays, which an in-memory merge cannot avoid; the old rows are not read from the
+     * table again. A text column that gains values moves the old keys through a table of alphabetical positions
+     * as they are copied. A composite order places each new row among the old rows by binary search, O(d log n)
+     * row comparisons, and numbers the merged keys again as they are copied, so after an ingest its keys are
+     * dense ranks rather than packed columns.
+     * <p>
+     * Rows from the file are printed by {@link #get(int)} with their line in this file.
+     *
+     * @param file CSV file with the same columns as the sorted records.
+     */
+    public void ingest(String file) throws IOException {
+        if (keys == null) throw new IllegalStateException("Records must be imported and sorted before more are added");
+        ingest(FlightTable.read(file), file);
+    }
+
+    /**
+     * Adds the rows of another table to the sorted records, as {@link #ingest(String)} does. The table has no
+     * file name, so its rows are printed with their line in "part p", the p-th table sorted or added.
+     *
+     * @param delta the new rows, with the same columns as the sorted records.
+     */
+    public void ingest(FlightTable delta) {
+        ingest(delta, "part " + (partStarts.size() + 2));
+    }
+
+    private void ingest(FlightTable delta, String source) {
+        if (keys == null) throw new IllegalStateException("Records must be imported and sorted before more are added");
+        long start = System.currentTimeMillis();
+        int old = table.rowCount();
+        FlightTable grown = table.append(delta);
+        int total = grown.rowCount();
+
+        int[] newIdx = new int[total - old];
+        for (int i = 0; i < newIdx.length; i++) newIdx[i] = old + i;
+        if (order != null) {
+            // Keys of the new rows only have to order the new rows among themselves.
+            double[] newKeys = CompositeKey.encode(delta, order);
+            sort(newKeys, newIdx);
+            mergeComposite(grown, newKeys, newIdx);
+        } else {
+            // A text value new to the table moves the alphabetical position of the values after it.
+            int[] moved = null;
+            if (grown.columnType(column) == FlightTable.Type.TEXT && grown.dictionarySize() > table.dictionarySize()) {
+                moved = table.textKeysIn(grown);
+            }
+            double[] newKeys = grown.keys(column, old, total);
+            sort(newKeys, newIdx);
+            merge(moved, newKeys, newIdx);
+        }
+
+        table = grown;
+        partStarts.add(old);
+        partNames.add(source);
+        index = new RankIndex(keys, idx);
+        long result = System.currentTimeMillis() - start;
+        System.out.println("\nRuntime of " + this.getClass().getName() + " adding " + newIdx.length + " rows on "
+                + columnName + ": " + result + "ms\n");
+    }
+
+    /**
+     * Merges sorted new keys into the sorted keys, old keys first on ties.
+     *
+     * @param moved the new key of each old text key, or null if the old keys are unchanged.
+     */
+    private void merge(int[] moved, double[] newKeys, int[] newIdx) {
+        int old = keys.length, total = old + newKeys.length;
+        double[] merged = new double[total];
+        int[] mergedIdx = new int[total];
+        int i = 0, j = 0, k = 0;
+        while (i < old || j < newKeys.length) {
+            double key = i < old ? (moved == null ? keys[i] : moved[(int) keys[i]]) : 0;
+            if (i < old && (j == newKeys.length || key <= newKeys[j])) {
+                merged[k] = key;
+                mergedIdx[k++] = idx[i++];
+            } else {
+                merged[k] = newKeys[j];
+                mergedIdx[k++] = newIdx[j++];
+            }
+        }
+        keys = merged;
+        idx = mergedIdx;
+    }
+
+    /**
+     * Merges sorted new rows into the sorted rows of a composite order, old rows first on ties. The two runs
+     * were keyed separately, so their keys cannot be compared: each new row is placed after the old rows that
+     * do not come before it in key order, found by binary search, and every merged row is then keyed by the
+     * number of distinct rows before it.
+     */
+    private void mergeComposite(FlightTable grown, double[] newKeys, int[] newIdx) {
+        int old = keys.length, total = old + newKeys.length;
+        double[] merged = new double[total];
+        int[] mergedIdx = new int[total];
+        double rank = -1;
+        boolean afterNew = false;
+        int i = 0, k = 0;
+        for (int j = 0; j <= newKeys.length; j++) {
+            int end = old;
+            if (j < newKeys.length) {
+                // First old row with a larger key than the new row.
+                int low = i, high = old;
+                while (low < high) {
+                    int mid = (low + high) >>> 1;
+                    if (CompositeKey.compare(grown, order, idx[mid], newIdx[j]) <= 0) low = mid + 1;
+                    else high = mid;
+                }
+                end = low;
+            }
+            for (; i < end; i++) {
+                // A new row only comes between old rows with different keys, as it is placed after its equals.
+                if (i == 0 || keys[i] != keys[i - 1]) rank++;
+                afterNew = false;
+                merged[k] = rank;
+                mergedIdx[k++] = idx[i];
+            }
+            if (j == newKeys.length) break;
+            boolean tie = afterNew ? newKeys[j] == newKeys[j - 1]
+                    : i > 0 && CompositeKey.compare(grown, order, idx[i - 1], newIdx[j]) == 0;
+            if (!tie) rank++;
+            afterNew = true;
+            merged[k] = rank;
+            mergedIdx[k++] = newIdx[j];
+        }
+        keys = merged;
+        idx = mergedIdx;
+    }
+
+    /**
+     * Sorts the keys into ascending order, moving each row index with its key.
+     *
+     * @param keys the keys to be sorted.
+     * @param idx the row index of each key.
+     */
+    protected abstract void sort(double[] keys, int[] idx);
+
+    /**
+     * Returns the flight records with the given ranking order. Each row is labelled with its line in the csv
+     * file it was read from; rows added by {@link #ingest(String)} also name their file.
+     *
+     * @param rank Specifies the rank of the records desired.
+     */
+    public void get(int rank) {
+        // Checks to make sure the records are imported and sorted before rank lookup.
+        if (keys == null) {
+            System.out.println("Records must be imported and sorted before rank is called!");
+            return;
+        }
+
+        // Finds and prints records with the desired rank.
+        if (rank == 0) {
+            System.out.println(pairs()); // Prints the entire ordered list of keys and values.
+        } else if (rank < 0) {
+            System.out.println("ERROR: Invalid rank input.");
+        } else {
+            System.out.println("RECORDS for " + columnName + " at RANK " + rank + ":");
+            if (!index.hasRank(rank)) {
+                System.out.println("No RECORDS found for " + columnName + " at RANK " + rank + "!");
+                return;
+            }
+            for (int row : index.rows(rank)) {
+                System.out.println(label(row) + ": " + table.row(row));
+            }
+        }
+    }
+
+    // The row's line in its csv file, after the header line, naming the file if the row was added by ingest.
+    private String label(int row) {
+        int part = partStarts.size() - 1;
+        while (part >= 0 && row < partStarts.get(part)) part--;
+        if (part < 0) return "ROW " + (row + 2);
+        return "ROW " + (row - partStarts.get(part) + 2) + " of " + partNames.get(part);
+    }
+
+    /**
+     * Returns the index of distinct-value runs built by the last sort, for rank, value, top-k,
+     * percentile and range lookups.
+     *
+     * @return the rank index, or null if nothing has been sorted.
+     */
+    public RankIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Formats the sorted keys as {original_array_index, value} pairs.
+     *
+     * @return the sorted pairs.
+     */
+    private String pairs() {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < keys.length; i++) {
+            if (i > 0) sb.append(", ");
+            sb.append('{').append(idx[i]).append(", ").append(keys[i]).append('}');
+        }
+        return sb.append(']').toString();
+    }
+}
@@ -0,0 +1,943 @@
+package au.edu.usc;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Immutable route graph in compressed sparse row form.
+ * Cities are numbered 0 to n - 1; the routes leaving city u are targets[offsets[u]] to
+ * targets[offsets[u + 1] - 1], with their distances at the same positions in weights.
+ * The same routes are also kept reversed (grouped by destination) for searches that run backwards
+ * from the target. A graph built from several months of records can also record the months each route
+ * operated in, as one bit per month, so a query can be limited to the routes of a single month, and the seats
+ * and passengers flown on each route, so a query can skip routes with too few seats or passengers.
+ * The graph is never modified after it is built, so any number of threads can query it at once;
+ * each query takes its scratch state from a pool of {@link SearchContext}s.
+ *
+ * @author Joseph Thurlow
+ */
+public class RouteGraph {
+
+    /** Distance of a city that cannot be reached. */
+    public static final int UNREACHABLE = Integer.MAX_VALUE;
+    /** Month given to searches that use the routes of every month. */
+    public static final int ALL_MONTHS = 0;
+    // Month bits of searches over every month, and of searches for a month outside the records.
+    private static final int ANY_MONTH = -1;
+    private static final int NO_MONTH = -2;
+
+    private final String[] names;
+    private final Map<String, Integer> ids;
+    private final int[] offsets;
+    private final int[] targets;
+    private final int[] weights;
+    // The routes grouped by destination: the routes arriving at city v come from
+    // sources[inOffsets[v]] to sources[inOffsets[v + 1] - 1]; inRoutes holds their position in targets.
+    private final int[] inOffsets;
+    private final int[] sources;
+    private final int[] inWeights;
+    private final int[] inRoutes;
+    // Months since year 0 of the first month recorded, the number of months, and for route e the bits
+    // activity[e * words] to activity[e * words + words - 1], bit m set if it operated in month m;
+    // activity is null when the graph has no months.
+    private final int firstMonth;
+    private final int monthCount;
+    private final int words;
+    private final long[] activity;
+    // Average seats per month and passenger load factor (percent of seats filled) of each route, 0 if unknown.
+    private final int[] seats;
+    private final double[] loadFactors;
+    // Coordinates in radians (NaN where unknown) and the factor that keeps the great-circle estimate
+    // below every route's recorded distance; geoScale is NaN when A* cannot be used.
+    private final CityCoordinates coordinates;
+    private final double[] lat;
+    private final double[] lon;
+    private final double geoScale;
+    private final Queue<SearchContext> contexts = new ConcurrentLinkedQueue<>();
+
+    private RouteGraph(String[] names, int[] offsets, int[] targets, int[] weights, int[] seats, double[] loadFactors,
+                       CityCoordinates coordinates, int firstMonth, int monthCount, long[] activity) {
+        this.names = names;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.weights = weights;
+        this.seats = seats;
+        this.loadFactors = loadFactors;
+        this.firstMonth = firstMonth;
+        this.monthCount = monthCount;
+        this.words = (monthCount + 63) >>> 6;
+        this.activity = activity;
+        ids = new HashMap<>();
+        for (int i = 0; i < names.length; i++) ids.put(names[i], i);
+
+        inOffsets = new int[names.length + 1];
+        for (int target : targets) inOffsets[target + 1]++;
+        for (int v = 0; v < names.length; v++) inOffsets[v + 1] += inOffsets[v];
+        sources = new int[targets.length];
+        inWeights = new int[targets.length];
+        inRoutes = new int[targets.length];
+        int[] next = Arrays.copyOf(inOffsets, names.length);
+        for (int u = 0; u < names.length; u++) {
+            for (int e = offsets[u]; e < offsets[u + 1]; e++) {
+                int p = next[targets[e]]++;
+                sources[p] = u;
+                inWeights[p] = weights[e];
+                inRoutes[p] = e;
+            }
+        }
+
+        this.coordinates = coordinates;
+        lat = new double[names.length];
+        lon = new double[names.length];
+        for (int i = 0; i < names.length; i++) {
+            lat[i] = coordinates == null ? Double.NaN : Math.toRadians(coordinates.latitude(names[i]));
+            lon[i] = coordinates == null ? Double.NaN : Math.toRadians(coordinates.longitude(names[i]));
+        }
+        geoScale = calibrate();
+    }
+
+    /**
+     * Finds the largest factor f with f * haversine(u, v) <= weight(u, v) for every route, capped at 1.
+     * The recorded distances are measured between city centres rather than airports, so the raw haversine
+     * distance can overshoot a route slightly; scaling by f keeps the estimate a lower bound. Scaled this way
+     * the estimate is consistent along every route (by the triangle inequality), so A* settles each city once.
+     *
+     * @return the factor, or NaN if some city has no coordinates.
+     */
+    private double calibrate() {
+        for (double v : lat) {
+            if (Double.isNaN(v)) return Double.NaN;
+        }
+        double scale = 1;
+        for (int u = 0; u < names.length; u++) {
+            for (int e = offsets[u]; e < offsets[u + 1]; e++) {
+                double km = greatCircle(u, targets[e]);
+                if (km > 0) scale = Math.min(scale, weights[e] / km);
+            }
+        }
+        return scale;
+    }
+
+    private double greatCircle(int u, int v) {
+        return CityCoordinates.haversine(lat[u], lon[u], lat[v], lon[v]);
+    }
+
+    /**
+     * Collects routes one at a time, in a single pass over the records, and packs them into a graph.
+     * Cities are numbered as they are first seen and routes are kept in a hash table keyed by their two city
+     * ids, so each record costs O(1). The records repeat a route once per month, so repeats are merged:
+     * <ul>
+     * <li>a route with no distance (0 between two different cities, or negative) is a placeholder
+     * row and is skipped;</li>
+     * <li>a route seen again with the same distance is a duplicate and is merged;</li>
+     * <li>a route seen again with a different distance conflicts. Nearly all such conflicts in the records are
+     * one mistyped row among hundreds of correct ones, so the distance most rows agree on is kept, found with a
+     * Boyer-Moore majority vote in O(1) space per route.</li>
+     * </ul>
+     * A builder created with a range of months also records the months each route operated in, and
+     * {@link #addTraffic(int, int, long, long)} adds up the passengers and seats flown on each route.
+     */
+    public static final class Builder {
+
+        private final Map<String, Integer> cities = new HashMap<>();
+        private final List<String> names = new ArrayList<>();
+        // Open-addressing table of routes: keys[slot] packs the two city ids, or is -1 when the slot is free.
+        private long[] keys;
+        // The majority vote of each route: its current candidate distance and the candidate's lead.
+        private int[] distances;
+        private int[] votes;
+        private boolean[] conflicted;
+        // Month bits of each slot, words longs per slot, when the builder records months.
+        private int firstMonth, monthCount, words;
+        private long[] activity;
+        // Passengers and seats flown on each slot, and the number of records with seats.
+        private long[] passengers;
+        private long[] seatTotals;
+        private int[] seatRecords;
+        private int routes;
+        private int skipped, duplicates, conflicts;
+
+        /**
+         * Creates a builder for routes without months.
+         */
+        public Builder() {
+            firstMonth = 0;
+            monthCount = 0;
+            words = 0;
+            allocate(64);
+        }
+
+        /**
+         * Creates a builder that records the months each route operated in.
+         *
+         * @param firstYearMonth the first month of the records, as yyyymm.
+         * @param lastYearMonth the last month of the records, as yyyymm.
+         */
+        public Builder(int firstYearMonth, int lastYearMonth) {
+            firstMonth = monthIndex(firstYearMonth);
+            monthCount = monthIndex(lastYearMonth) - firstMonth + 1;
+            if (monthCount < 1) {
+                throw new IllegalArgumentException("Month range is empty: " + firstYearMonth + " to " + lastYearMonth);
+            }
+            words = (monthCount + 63) >>> 6;
+            allocate(64);
+        }
+
+        private void allocate(int size) {
+            keys = new long[size];
+            Arrays.fill(keys, -1);
+            distances = new int[size];
+            votes = new int[size];
+            conflicted = new boolean[size];
+            activity = new long[size * words];
+            passengers = new long[size];
+            seatTotals = new long[size];
+            seatRecords = new int[size];
+        }
+
+        /**
+         * @param name city name.
+         * @return the id of the city in the builder, adding the city if it is new.
+         */
+        public int city(String name) {
+            Integer id = cities.get(name);
+            if (id == null) {
+                id = names.size();
+                cities.put(name, id);
+                names.add(name);
+            }
+            return id;
+        }
+
+        /**
+         * Adds a route between two cities returned by {@link #city(String)}.
+         *
+         * @param from id of the origin city.
+         * @param to id of the destination city.
+         * @param distance distance of the route in GC_KM.
+         */
+        public void addRoute(int from, int to, int distance) {
+            add(from, to, distance);
+        }
+
+        /**
+         * Adds a route that operated in the given month.
+         *
+         * @param from id of the origin city.
+         * @param to id of the destination city.
+         * @param distance distance of the route in GC_KM.
+         * @param yearMonth the month, as yyyymm, within the builder's range.
+         */
+        public void addRoute(int from, int to, int distance, int yearMonth) {
+            if (words == 0) throw new IllegalStateException("The builder does not record months");
+            int month = monthIndex(yearMonth) - firstMonth;
+            if (month < 0 || month >= monthCount) {
+                throw new IllegalArgumentException("Month outside the builder's range: " + yearMonth);
+            }
+            int slot = add(from, to, distance);
+            if (slot >= 0) activity[slot * words + (month >>> 6)] |= 1L << month;
+        }
+
+        /**
+         * @return true if the builder records the months each route operated in.
+         */
+        public boolean recordsMonths() {
+            return words > 0;
+        }
+
+        /**
+         * Widens the range of months the builder records, such as for records of a month after the last one.
+         * The months already recorded are kept.
+         *
+         * @param firstYearMonth the first month to record, as yyyymm.
+         * @param lastYearMonth the last month to record, as yyyymm.
+         */
+        public void extendMonths(int firstYearMonth, int lastYearMonth) {
+            if (words == 0) throw new IllegalStateException("The builder does not record months");
+            int first = Math.min(firstMonth, monthIndex(firstYearMonth));
+            int count = Math.max(firstMonth + monthCount, monthIndex(lastYearMonth) + 1) - first;
+            if (first == firstMonth && count == monthCount) return;
+            int newWords = (count + 63) >>> 6, shift = firstMonth - first;
+            int wordShift = shift >>> 6, bitShift = shift & 63;
+            long[] moved = new long[keys.length * newWords];
+            // Moves each slot's month bits a word at a time, so this costs O(slots * months / 64).
+            for (int slot = 0; slot < keys.length; slot++) {
+                if (keys[slot] == -1) continue;
+                for (int w = 0; w < words; w++) {
+                    long bits = activity[slot * words + w];
+                    if (bits == 0) continue;
+                    int to = slot * newWords + w + wordShift;
+                    moved[to] |= bits << bitShift;
+                    if (bitShift != 0 && w + wordShift + 1 < newWords) moved[to + 1] |= bits >>> (64 - bitShift);
+                }
+            }
+            firstMonth = first;
+            monthCount = count;
+            words = newWords;
+            activity = moved;
+        }
+
+        /**
+         * Adds the passengers and seats of one record of a route added with addRoute. Records of a route that was
+         * skipped are ignored.
+         *
+         * @param from id of the origin city.
+         * @param to id of the destination city.
+         * @param passengerTrips passengers flown.
+         * @param seats seats flown.
+         */
+        public void addTraffic(int from, int to, long passengerTrips, long seats) {
+            if (passengerTrips < 0 || seats < 0) {
+                throw new IllegalArgumentException("Negative traffic on route " + from + " to " + to);
+            }
+            int slot = slot((long) from << 32 | to);
+            if (keys[slot] == -1 || seats == 0) return;
+            passengers[slot] += passengerTrips;
+            seatTotals[slot] += seats;
+            seatRecords[slot]++;
+        }
+
+        // Adds or merges the route, returning its slot, or -1 if it was skipped.
+        private int add(int from, int to, int distance) {
+            if (from < 0 || from >= names.size() || to < 0 || to >= names.size()) {
+                throw new IllegalArgumentException("Route between unknown cities " + from + " and " + to);
+            }
+            if (distance < 0 || distance == 0 && from != to) {
+                skipped++;
+                return -1;
+            }
+            long key = (long) from << 32 | to;
+            int slot = slot(key);
+            if (keys[slot] == key) {
+                if (distances[slot] == distance) {
+                    duplicates++;
+                    votes[slot]++;
+                    return slot;
+                }
+                if (!conflicted[slot]) {
+                    conflicted[slot] = true;
+                    conflicts++;
+                }
+                if (--votes[slot] < 0) {
+                    distances[slot] = distance;
+                    votes[slot] = 1;
+                }
+                return slot;
+            }
+            if ((routes + 1) * 2 > keys.length) {
+                grow();
+                slot = slot(key);
+            }
+            routes++;
+            keys[slot] = key;
+            distances[slot] = distance;
+            votes[slot] = 1;
+            return slot;
+        }
+
+        // Slot holding the key, or the free slot where it belongs.
+        private int slot(long key) {
+            int mask = keys.length - 1;
+            int slot = (int) ((key * 0x9E3779B97F4A7C15L) >>> 40) & mask;
+            while (keys[slot] != -1 && keys[slot] != key) slot = (slot + 1) & mask;
+            return slot;
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            int[] oldDistances = distances, oldVotes = votes;
+            boolean[] oldConflicted = conflicted;
+            long[] oldActivity = activity, oldPassengers = passengers, oldSeatTotals = seatTotals;
+            int[] oldSeatRecords = seatRecords;
+            allocate(oldKeys.length * 2);
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] == -1) continue;
+                int slot = slot(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                distances[slot] = oldDistances[i];
+                votes[slot] = oldVotes[i];
+                conflicted[slot] = oldConflicted[i];
+                System.arraycopy(oldActivity, i * words, activity, slot * words, words);
+                passengers[slot] = oldPassengers[i];
+                seatTotals[slot] = oldSeatTotals[i];
+                seatRecords[slot] = oldSeatRecords[i];
+            }
+        }
+
+        public int cityCount() {
+            return names.size();
+        }
+
+        public int routeCount() {
+            return routes;
+        }
+
+        /**
+         * @return the number of placeholder routes skipped because they had no distance.
+         */
+        public int skippedRoutes() {
+            return skipped;
+        }
+
+        /**
+         * @return the number of repeats of a route with the same distance.
+         */
+        public int duplicateRoutes() {
+            return duplicates;
+        }
+
+        /**
+         * @return the number of routes listed with more than one distance.
+         */
+        public int conflictingRoutes() {
+            return conflicts;
+        }
+
+        /**
+         * Packs the routes into a graph. Cities are renumbered in name order and each city's routes are
+         * ordered by destination, so the same records always give the same graph.
+         *
+         * @param coordinates city coordinates, or null if there are none.
+         * @return the graph.
+         */
+        public RouteGraph build(CityCoordinates coordinates) {
+            int n = names.size();
+            String[] sorted = names.toArray(new String[0]);
+            Arrays.sort(sorted);
+            int[] renumber = new int[n];
+            for (int i = 0; i < n; i++) renumber[i] = Arrays.binarySearch(sorted, names.get(i));
+
+            // Packs each route as (from, to) so a single sort orders them by origin, then destination.
+            long[] packed = new long[routes];
+            int[] slotOf = new int[routes];
+            for (int slot = 0, r = 0; slot < keys.length; slot++) {
+                if (keys[slot] == -1) continue;
+                long from = renumber[(int) (keys[slot] >>> 32)], to = renumber[(int) keys[slot]];
+                packed[r] = from << 32 | to;
+                slotOf[r++] = slot;
+            }
+            int[] order = new int[routes];
+            for (int r = 0; r < routes; r++) order[r] = r;
+            long[] sortKeys = packed.clone();
+            new RadixSort().sort(sortKeys, order);
+
+            int[] offsets = new int[n + 1];
+            int[] targets = new int[routes];
+            int[] weights = new int[routes];
+            int[] seats = new int[routes];
+            double[] loadFactors = new double[routes];
+            long[] months = words == 0 ? null : new long[routes * words];
+            for (int e = 0; e < routes; e++) {
+                int slot = slotOf[order[e]];
+                offsets[(int) (sortKeys[e] >>> 32) + 1]++;
+                targets[e] = (int) sortKeys[e];
+                weights[e] = distances[slot];
+                if (seatRecords[slot] > 0) {
+                    seats[e] = (int) Math.min(Integer.MAX_VALUE, seatTotals[slot] / seatRecords[slot]);
+                    loadFactors[e] = 100.0 * passengers[slot] / seatTotals[slot];
+                }
+                if (months != null) System.arraycopy(activity, slot * words, months, e * words, words);
+            }
+            for (int i = 0; i < n; i++) offsets[i + 1] += offsets[i];
+            return new RouteGraph(sorted, offsets, targets, weights, seats, loadFactors, coordinates,
+                    firstMonth, monthCount, months);
+        }
+    }
+
+    public int nodeCount() {
+        return names.length;
+    }
+
+    public int edgeCount() {
+        return targets.length;
+    }
+
+    /**
+     * @return true if the graph records the months each route operated in.
+     */
+    public boolean isTimed() {
+        return activity != null;
+    }
+
+    /**
+     * @return the first month of the records as yyyymm, or ALL_MONTHS if the graph has no months.
+     */
+    public int firstYearMonth() {
+        return isTimed() ? yearMonth(firstMonth) : ALL_MONTHS;
+    }
+
+    /**
+     * @return the last month of the records as yyyymm, or ALL_MONTHS if the graph has no months.
+     */
+    public int lastYearMonth() {
+        return isTimed() ? yearMonth(firstMonth + monthCount - 1) : ALL_MONTHS;
+    }
+
+    /**
+     * @param from id of the origin city.
+     * @param to id of the destination city.
+     * @param yearMonth the month as yyyymm, or ALL_MONTHS.
+     * @return true if there is a direct route that operated in the month.
+     */
+    public boolean operates(int from, int to, int yearMonth) {
+        int bit = monthBit(yearMonth);
+        for (int e = offsets[from]; e < offsets[from + 1]; e++) {
+            if (targets[e] == to) return operates(e, bit);
+        }
+        return false;
+    }
+
+    // Converts yyyymm to months since year 0, checking the month number.
+    private static int monthIndex(int yearMonth) {
+        int month = yearMonth % 100;
+        if (yearMonth <= 0 || month < 1 || month > 12) {
+            throw new IllegalArgumentException("Not a yyyymm month: " + yearMonth);
+        }
+        return yearMonth / 100 * 12 + month - 1;
+    }
+
+    private static int yearMonth(int monthIndex) {
+        return monthIndex / 12 * 100 + monthIndex % 12 + 1;
+    }
+
+    // The bit of a month in the activity of each route, ANY_MONTH for ALL_MONTHS or NO_MONTH outside the records.
+    int monthBit(int yearMonth) {
+        if (yearMonth == ALL_MONTHS) return ANY_MONTH;
+        if (!isTimed()) throw new IllegalArgumentException("The routes were loaded without months");
+        int bit = monthIndex(yearMonth) - firstMonth;
+        return bit < 0 || bit >= monthCount ? NO_MONTH : bit;
+    }
+
+    boolean operates(int e, int bit) {
+        if (bit == ANY_MONTH) return true;
+        return bit != NO_MONTH && (activity[e * words + (bit >>> 6)] & 1L << bit) != 0;
+    }
+
+    /**
+     * @param name city name.
+     * @return the id of the city, or -1 if it is not in the graph.
+     */
+    public int id(String name) {
+        Integer id = ids.get(name);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * @param id city id.
+     * @return the name of the city.
+     */
+    public String name(int id) {
+        return names[id];
+    }
+
+    /**
+     * @param id city id.
+     * @return the number of routes leaving the city.
+     */
+    public int outDegree(int id) {
+        return offsets[id + 1] - offsets[id];
+    }
+
+    /**
+     * @param id city id.
+     * @return the number of routes arriving at the city.
+     */
+    public int inDegree(int id) {
+        return inOffsets[id + 1] - inOffsets[id];
+    }
+
+    /**
+     * @param from id of the origin city.
+     * @param to id of the destination city.
+     * @return the distance of the direct route, or UNREACHABLE if there is none.
+     */
+    public int weight(int from, int to) {
+        for (int e = offsets[from]; e < offsets[from + 1]; e++) {
+            if (targets[e] == to) return weights[e];
+        }
+        return UNREACHABLE;
+    }
+
+    /**
+     * @param from id of the origin city.
+     * @param to id of the destination city.
+     * @return the average seats flown per month on the direct route, or 0 if unknown or there is no route.
+     */
+    public int seats(int from, int to) {
+        for (int e = offsets[from]; e < offsets[from + 1]; e++) {
+            if (targets[e] == to) return seats[e];
+        }
+        return 0;
+    }
+
+    /**
+     * @param from id of the origin city.
+     * @param to id of the destination city.
+     * @return the percentage of seats filled on the direct route, or 0 if unknown or there is no route.
+     */
+    public double loadFactor(int from, int to) {
+        for (int e = offsets[from]; e < offsets[from + 1]; e++) {
+            if (targets[e] == to) return loadFactors[e];
+        }
+        return 0;
+    }
+
+    // Edge-level access for code that walks every route, such as AllPairsTable.
+    int firstRoute(int id) {
+        return offsets[id];
+    }
+
+    int routeTarget(int e) {
+        return targets[e];
+    }
+
+    int routeWeight(int e) {
+        return weights[e];
+    }
+
+    int routeSeats(int e) {
+        return seats[e];
+    }
+
+    double routeLoadFactor(int e) {
+        return loadFactors[e];
+    }
+
+    // The same routes grouped by destination; inRoute gives the position of each in the routes above.
+    int firstInRoute(int id) {
+        return inOffsets[id];
+    }
+
+    int inRouteSource(int p) {
+        return sources[p];
+    }
+
+    int inRoute(int p) {
+        return inRoutes[p];
+    }
+
+    /**
+     * Returns a copy of the graph with a route added, or with its distance changed if it already exists.
+     * Cities that are new to the graph are added, which renumbers the cities. A changed route keeps its months
+     * and traffic, and a new route operates in every month with no recorded traffic: its seats and load factor
+     * are 0, so searches with a minimum seat count or load factor never use it.
+     *
+     * @param from origin city.
+     * @param to destination city.
+     * @param distance distance of the route in GC_KM; 0 only for a route from a city to itself.
+     * @return the changed graph.
+     * @throws IllegalArgumentException if the distance is negative, or 0 between different cities, which the
+     * records use as a placeholder for an unknown distance.
+     */
+    public RouteGraph withRoute(String from, String to, int distance) {
+        if (distance < 0) throw new IllegalArgumentException("Route distance must not be negative: " + distance);
+        if (distance == 0 && !from.equals(to)) {
+            throw new IllegalArgumentException("Route distance from " + from + " to " + to + " must be positive");
+        }
+        return change(from, to, distance);
+    }
+
+    /**
+     * Returns a copy of the graph without a route. Its cities stay in the graph.
+     *
+     * @param from origin city.
+     * @param to destination city.
+     * @return the changed graph, or this graph if it has no such route.
+     */
+    public RouteGraph withoutRoute(String from, String to) {
+        int u = id(from), v = id(to);
+        if (u < 0 || v < 0 || weight(u, v) == UNREACHABLE) return this;
+        return change(from, to, -1);
+    }
+
+    // Copies the arrays with the route from -> to set to distance, or removed when distance is -1.
+    private RouteGraph change(String from, String to, int distance) {
+        String[] all = names;
+        if (id(from) < 0 || id(to) < 0) {
+            SortedSet<String> cities = new TreeSet<>(Arrays.asList(names));
+            cities.add(from);
+            cities.add(to);
+            all = cities.toArray(new String[0]);
+        }
+        int[] renumber = new int[names.length];
+        for (int i = 0; i < names.length; i++) renumber[i] = Arrays.binarySearch(all, names[i]);
+        int u = Arrays.binarySearch(all, from), v = Arrays.binarySearch(all, to);
+        boolean exists = id(from) >= 0 && id(to) >= 0 && weight(id(from), id(to)) != UNREACHABLE;
+
+        int[] degree = new int[all.length + 1];
+        for (int i = 0; i < names.length; i++) degree[renumber[i] + 1] = offsets[i + 1] - offsets[i];
+        if (!exists) degree[u + 1]++;
+        else if (distance < 0) degree[u + 1]--;
+        for (int i = 0; i < all.length; i++) degree[i + 1] += degree[i];
+
+        int[] newTargets = new int[degree[all.length]];
+        int[] newWeights = new int[newTargets.length];
+        int[] newSeats = new int[newTargets.length];
+        double[] newLoadFactors = new double[newTargets.length];
+        long[] newActivity = activity == null ? null : new long[newTargets.length * words];
+        for (int i = 0; i < names.length; i++) {
+            int p = degree[renumber[i]];
+            for (int e = offsets[i]; e < offsets[i + 1]; e++) {
+                int t = renumber[targets[e]];
+                if (renumber[i] == u && t == v && distance < 0) continue;
+                if (newActivity != null) System.arraycopy(activity, e * words, newActivity, p * words, words);
+                newSeats[p] = seats[e];
+                newLoadFactors[p] = loadFactors[e];
+                newTargets[p] = t;
+                newWeights[p++] = renumber[i] == u && t == v ? distance : weights[e];
+            }
+        }
+        if (!exists) {
+            int p = degree[u + 1] - 1;
+            newTargets[p] = v;
+            newWeights[p] = distance;
+            // A route added by hand is taken to operate in every month of the records.
+            if (newActivity != null) {
+                for (int m = 0; m < monthCount; m++) newActivity[p * words + (m >>> 6)] |= 1L << m;
+            }
+        }
+        return new RouteGraph(all, degree, newTargets, newWeights, newSeats, newLoadFactors, coordinates,
+                firstMonth, monthCount, newActivity);
+    }
+
+    /**
+     * @return true if every city has coordinates, so {@link #guidedPath(int, int, SearchContext)} runs A*.
+     */
+    public boolean isGuided() {
+        return !Double.isNaN(geoScale);
+    }
+
+    /**
+     * Takes a search context from the pool, creating one if every pooled context is in use.
+     * Contexts are not tied to threads, so this works the same for platform and virtual threads.
+     *
+     * @return a context sized for this graph; hand it back with {@link #release(SearchContext)}.
+     */
+    public SearchContext acquire() {
+        SearchContext ctx = contexts.poll();
+        return ctx != null ? ctx : new SearchContext(names.length);
+    }
+
+    /**
+     * Returns a context to the pool.
+     *
+     * @param ctx a context from {@link #acquire()} that is no longer used.
+     */
+    public void release(SearchContext ctx) {
+        if (ctx.capacity() == names.length) contexts.offer(ctx);
+    }
+
+    /**
+     * Single-source Dijkstra over the compiled arrays, using an indexed heap with decrease-key.
+     * Runs in O((V + E) log V) and allocates nothing; the distances and predecessors are left in the context.
+     *
+     * @param source id of the origin city.
+     * @param ctx scratch state for the query.
+     */
+    public void shortestPaths(int source, SearchContext ctx) {
+        search(source, -1, ANY_MONTH, ctx);
+    }
+
+    /**
+     * Single-source Dijkstra over the routes that operated in one month.
+     *
+     * @param source id of the origin city.
+     * @param yearMonth the month as yyyymm, or ALL_MONTHS.
+     * @param ctx scratch state for the query.
+     */
+    public void shortestPaths(int source, int yearMonth, SearchContext ctx) {
+        search(source, -1, monthBit(yearMonth), ctx);
+    }
+
+    /**
+     * Point-to-point Dijkstra that stops as soon as the target is settled, as its distance and path can no
+     * longer change. Cities further from the origin than the target are never settled.
+     *
+     * @param source id of the origin city.
+     * @param target id of the destination city.
+     * @param ctx scratch state for the query; holds the path to the target afterwards.
+     * @return the distance to the target, or UNREACHABLE.
+     */
+    public int shortestPath(int source, int target, SearchContext ctx) {
+        return shortestPath(source, target, ALL_MONTHS, ctx);
+    }
+
+    /**
+     * Point-to-point Dijkstra over the routes that operated in one month.
+     *
+     * @param source id of the origin city.
+     * @param target id of the destination city.
+     * @param yearMonth the month as yyyymm, or ALL_MONTHS.
+     * @param ctx scratch state for the query; holds the path to the target afterwards.
+     * @return the distance to the target, or UNREACHABLE.
+     */
+    public int shortestPath(int source, int target, int yearMonth, SearchContext ctx) {
+        search(source, target, monthBit(yearMonth), ctx);
+        return ctx.dist(target);
+    }
+
+    private void search(int source, int target, int bit, SearchContext ctx) {
+        ctx.reset();
+        IndexedMinHeap heap = ctx.heap();
+        ctx.set(source, 0, -1);
+        heap.offer(source, 0);
+
+        while (!heap.isEmpty()) {
+            int u = heap.poll();
+            if (u == target) return;
+            int du = ctx.dist(u);
+            for (int e = offsets[u]; e < offsets[u + 1]; e++) {
+                if (!operates(e, bit)) continue;
+                int v = targets[e];
+                int alt = du + weights[e];
+                if (alt < ctx.dist(v)) {
+                    ctx.set(v, alt, u);
+                    heap.offer(v, alt);
+                }
+            }
+        }
+    }
+
+    /**
+     * Bidirectional Dijkstra: one search grows forwards from the origin over the routes and another grows
+     * backwards from the target over the reversed routes, always advancing the one with the closer frontier.
+     * Every city labelled by both searches gives a candidate path; once the two frontier distances add up to
+     * at least the best candidate no shorter path can exist, so the searches stop with each having settled
+     * roughly the cities within half the distance.
+     *
+     * @param source id of the origin city.
+     * @param target id of the destination city.
+     * @param forward scratch state for the forward search; its predecessors lead back to the origin.
+     * @param backward scratch state for the backward search; its predecessors lead on to the target.
+     * @return the city where the two halves of the shortest path meet, or -1 if the target is unreachable.
+     */
+    public int meetingPoint(int source, int target, SearchContext forward, SearchContext backward) {
+        return meetingPoint(source, target, ALL_MONTHS, forward, backward);
+    }
+
+    /**
+     * Bidirectional Dijkstra over the routes that operated in one month.
+     *
+     * @param source id of the origin city.
+     * @param target id of the destination city.
+     * @param yearMonth the month as yyyymm, or ALL_MONTHS.
+     * @param forward scratch state for the forward search.
+     * @param backward scratch state for the backward search.
+     * @return the city where the two halves of the shortest path meet, or -1 if the target is unreachable.
+     */
+    public int meetingPoint(int source, int target, int yearMonth, SearchContext forward, SearchContext backward) {
+        int bit = monthBit(yearMonth);
+        forward.reset();
+        backward.reset();
+        IndexedMinHeap fHeap = forward.heap(), bHeap = backward.heap();
+        forward.set(source, 0, -1);
+        fHeap.offer(source, 0);
+        backward.set(target, 0, -1);
+        bHeap.offer(target, 0);
+        long best = source == target ? 0 : UNREACHABLE;
+        int meet = source == target ? source : -1;
+
+        while (!fHeap.isEmpty() && !bHeap.isEmpty()) {
+            int fTop = fHeap.key(fHeap.peek()), bTop = bHeap.key(bHeap.peek());
+            if ((long) fTop + bTop >= best) break;
+            boolean forwards = fTop <= bTop;
+            SearchContext ctx = forwards ? forward : backward, other = forwards ? backward : forward;
+            int[] start = forwards ? offsets : inOffsets;
+            int[] adj = forwards ? targets : sources;
+            int[] w = forwards ? weights : inWeights;
+
+            IndexedMinHeap heap = ctx.heap();
+            int u = heap.poll();
+            int du = ctx.dist(u);
+            for (int e = start[u]; e < start[u + 1]; e++) {
+                if (!operates(forwards ? e : inRoutes[e], bit)) continue;
+                int v = adj[e];
+                int alt = du + w[e];
+                if (alt < ctx.dist(v)) {
+                    ctx.set(v, alt, u);
+                    heap.offer(v, alt);
+                    int dv = other.dist(v);
+                    if (dv != UNREACHABLE && (long) alt + dv < best) {
+                        best = (long) alt + dv;
+                        meet = v;
+                    }
+                }
+            }
+        }
+        return meet;
+    }
+
+    /**
+     * A* search from the origin to the target. Cities are taken from the heap in order of their distance so far
+     * plus the scaled great-circle distance left to the target, so the search heads towards the target instead
+     * of growing evenly in every direction. It stops once the target is settled.
+     * Without coordinates for every city the estimate is no longer a safe lower bound, so the search falls
+     * back to plain point-to-point Dijkstra.
+     *
+     * @param source id of the origin city.
+     * @param target id of the destination city.
+     * @param ctx scratch state for the query; holds the path to the target afterwards.
+     * @return the distance to the target, or UNREACHABLE.
+     */
+    public int guidedPath(int source, int target, SearchContext ctx) {
+        return guidedPath(source, target, ALL_MONTHS, ctx);
+    }
+
+    /**
+     * A* search over the routes that operated in one month. The estimate is scaled against every route,
+     * so it stays a lower bound for any subset of them.
+     *
+     * @param source id of the origin city.
+     * @param target id of the destination city.
+     * @param yearMonth the month as yyyymm, or ALL_MONTHS.
+     * @param ctx scratch state for the query; holds the path to the target afterwards.
+     * @return the distance to the target, or UNREACHABLE.
+     */
+    public int guidedPath(int source, int target, int yearMonth, SearchContext ctx) {
+        if (!isGuided()) return shortestPath(source, target, yearMonth, ctx);
+        int bit = monthBit(yearMonth);
+        ctx.reset();
+        IndexedMinHeap heap = ctx.heap();
+        ctx.set(source, 0, -1);
+        heap.offer(source, estimate(source, target));
+
+        while (!heap.isEmpty()) {
+            int u = heap.poll();
+            if (u == target) break;
+            int du = ctx.dist(u);
+            for (int e = offsets[u]; e < offsets[u + 1]; e++) {
+                if (!operates(e, bit)) continue;
+                int v = targets[e];
+                int alt = du + weights[e];
+                if (alt < ctx.dist(v)) {
+                    ctx.set(v, alt, u);
+                    heap.offer(v, alt + estimate(v, target));
+                }
+            }
+        }
+        return ctx.dist(target);
+    }
+
+    /**
+     * Finds the k shortest itineraries between two cities that visit no city twice, using Yen's algorithm
+     * with its spur searches pruned and guided by one backward search from the target ({@link KShortestPaths}).
+     * Only routes that meet the constraints are used. Itineraries of equal length are ordered by their number
+     * of legs, then by their cities' ids.
+     *
+     * @param source id of the origin city.
+     * @param target id of the destination city.
+     * @param k the most itineraries to return.
+     * @param constraints limits on the itineraries, or ItineraryConstraints.NONE.
+     * @return up to k itineraries, shortest first; empty if the origin is the destination or no itinerary
+     *         meets the constraints.
+     * @throws IllegalArgumentException if k is less than 1, or the constraints give a month the graph cannot use.
+     */
+    public List<Itinerary> shortestItineraries(int source, int target, int k, ItineraryConstraints constraints) {
+        return KShortestPaths.find(this, source, target, k, constraints);
+    }
+
+    // Rounded down so the estimate stays consistent with the whole-number route distances.
+    private int estimate(int v, int target) {
+        return (int) (geoScale * greatCircle(v, target));
+    }
+}
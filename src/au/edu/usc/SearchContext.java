@@ -0,0 +1,79 @@
+package au.edu.usc;
+
+import java.util.Arrays;
+
+/**
+ * Scratch state for one shortest-path query: tentative distances, predecessors and the heap.
+ * Entries are only valid when stamped with the current query number, so starting a new query costs O(1)
+ * instead of clearing every array. A context is used by one thread at a time; {@link RouteGraph} keeps a
+ * pool of them so concurrent queries share the immutable graph without sharing any search state.
+ *
+ * @author Joseph Thurlow
+ */
+public class SearchContext {
+
+    private final int[] dist;
+    private final int[] pred;
+    private final int[] stamp;
+    private final IndexedMinHeap heap;
+    private int query;
+
+    /**
+     * @param capacity number of cities the context can search.
+     */
+    public SearchContext(int capacity) {
+        dist = new int[capacity];
+        pred = new int[capacity];
+        stamp = new int[capacity];
+        heap = new IndexedMinHeap(capacity);
+    }
+
+    public int capacity() {
+        return dist.length;
+    }
+
+    /**
+     * Starts a new query, forgetting every distance of the previous one.
+     */
+    public void reset() {
+        heap.clear();
+        if (++query == 0) {
+            // The stamp counter wrapped around, so old stamps could look current.
+            Arrays.fill(stamp, 0);
+            query = 1;
+        }
+    }
+
+    /**
+     * @param id city id.
+     * @return the best distance found so far, or RouteGraph.UNREACHABLE.
+     */
+    public int dist(int id) {
+        return stamp[id] == query ? dist[id] : RouteGraph.UNREACHABLE;
+    }
+
+    /**
+     * @param id city id.
+     * @return the previous city on the best path found so far, or -1.
+     */
+    public int pred(int id) {
+        return stamp[id] == query ? pred[id] : -1;
+    }
+
+    /**
+     * Records a better path to a city.
+     *
+     * @param id city id.
+     * @param distance the new distance.
+     * @param from previous city on the path, or -1 for the origin.
+     */
+    public void set(int id, int distance, int from) {
+        stamp[id] = query;
+        dist[id] = distance;
+        pred[id] = from;
+    }
+
+    public IndexedMinHeap heap() {
+        return heap;
+    }
+}
@@ -0,0 +1,67 @@
+package au.edu.usc;
+
+/**
+ * The shortest routes from one city to every other, kept from a finished single-source search so that
+ * routes to any destination can be read off later without searching again.
+ *
+ * @author Joseph Thurlow
+ */
+public class ShortestPathTree {
+
+    private final RouteGraph graph;
+    private final int source;
+    private final int[] dist;
+    private final int[] pred;
+
+    /**
+     * Copies the distances and predecessors out of a context that has finished
+     * {@link RouteGraph#shortestPaths(int, SearchContext)}.
+     *
+     * @param graph the graph that was searched.
+     * @param source id of the origin city.
+     * @param ctx context holding the search.
+     */
+    ShortestPathTree(RouteGraph graph, int source, SearchContext ctx) {
+        this.graph = graph;
+        this.source = source;
+        dist = new int[graph.nodeCount()];
+        pred = new int[graph.nodeCount()];
+        for (int v = 0; v < dist.length; v++) {
+            dist[v] = ctx.dist(v);
+            pred[v] = ctx.pred(v);
+        }
+    }
+
+    public RouteGraph graph() {
+        return graph;
+    }
+
+    public int source() {
+        return source;
+    }
+
+    /**
+     * @param target id of the destination city.
+     * @return the shortest distance, or RouteGraph.UNREACHABLE.
+     */
+    public int distance(int target) {
+        return dist[target];
+    }
+
+    /**
+     * @param target id of the destination city.
+     * @return the shortest route to the city, or null if it cannot be reached.
+     */
+    public Itinerary itinerary(int target) {
+        if (dist[target] == RouteGraph.UNREACHABLE) return null;
+        int count = 1;
+        for (int v = pred[target]; v != -1; v = pred[v]) count++;
+        int[] stops = new int[count];
+        int[] legs = new int[count - 1];
+        for (int v = target, i = count - 1; v != -1; v = pred[v], i--) {
+            stops[i] = v;
+            if (i > 0) legs[i - 1] = dist[v] - dist[pred[v]];
+        }
+        return new Itinerary(graph, stops, legs, dist[target]);
+    }
+}
@@ -0,0 +1,50 @@
+package au.edu.usc;
+
+/**
+ * One column of a composite sort order and the direction it is ranked in.
+ *
+ * @author Joseph Thurlow
+ */
+public class SortKey {
+
+    private final int column;
+    private final boolean descending;
+
+    /**
+     * @param column 1-based column number.
+     * @param descending true to rank the largest value first, false to rank the smallest value first.
+     */
+    public SortKey(int column, boolean descending) {
+        if (column < 1) throw new IllegalArgumentException("Column must be 1 or more: " + column);
+        this.column = column;
+        this.descending = descending;
+    }
+
+    /**
+     * @param column 1-based column number.
+     * @return a key ranking the smallest value (or first name alphabetically) first.
+     */
+    public static SortKey asc(int column) {
+        return new SortKey(column, false);
+    }
+
+    /**
+     * @param column 1-based column number.
+     * @return a key ranking the largest value (or last name alphabetically) first.
+     */
+    public static SortKey desc(int column) {
+        return new SortKey(column, true);
+    }
+
+    public int getColumn() {
+        return column;
+    }
+
+    public boolean isDescending() {
+        return descending;
+    }
+
+    public String toString() {
+        return column + (descending ? " desc" : " asc");
+    }
+}
@@ -0,0 +1,246 @@
+package au.edu.usc;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Finds the rows with the top k ranks of a column in one pass over a csv, without sorting it.
+ * <p>
+ * As the file is scanned, each row whose key is among the k largest distinct keys seen so far is added to that
+ * key's group. The groups sit in a min-heap, so a new key larger than the smallest kept key replaces that
+ * group, and a row whose key is smaller is dropped after one comparison. Memory is O(k) groups plus the rows in
+ * them, whatever the size of the file; each kept row is remembered by its line's offset and read back from the
+ * csv when it is printed.
+ * <p>
+ * Ranks and printed rows match {@link RecordSorter#get(int)} for ranks 1 to k, ties included. Text values are
+ * compared directly, which orders them as their alphabetical positions do.
+ *
+ * @author Joseph Thurlow
+ */
+public class TopRanks implements Closeable {
+
+    private final int k;
+
+    private String columnName;
+    private FlightTable.Type[] types;
+    private CsvScanner source;
+    // Kept groups, highest key first.
+    private Group[] ranked;
+
+    /**
+     * @param k number of ranks to keep.
+     */
+    public TopRanks(int k) {
+        if (k < 1) throw new IllegalArgumentException("Rank count must be positive: " + k);
+        this.k = k;
+    }
+
+    /**
+     * Scans a csv file for the rows with the k highest keys of a column. The results of an earlier scan are
+     * dropped.
+     *
+     * @param file CSV file to scan.
+     * @param column 1-based column to rank by.
+     */
+    public void select(String file, int column) throws IOException {
+        close();
+        long start = System.currentTimeMillis();
+        boolean done = false;
+        try {
+            source = new CsvScanner(file);
+            String[] names = source.header();
+            if (column < 1 || column > names.length) {
+                throw new IllegalArgumentException("Column " + column + " is out of range 1.." + names.length);
+            }
+            columnName = names[column - 1];
+            types = FlightTable.columnTypes(source);
+            Selector selector = new Selector(column - 1, types[column - 1] == FlightTable.Type.TEXT);
+            source.scan(selector);
+            ranked = selector.heap.toArray(new Group[0]);
+            Arrays.sort(ranked, (a, b) -> compare(b.key, a.key));
+            done = true;
+        } finally {
+            if (!done) close();
+        }
+        long result = System.currentTimeMillis() - start;
+        System.out.println("\nRuntime of " + this.getClass().getName() + " on " + columnName + ": " + result + "ms\n");
+    }
+
+    // Orders keys as the sorts do: text alphabetically, numbers by value.
+    @SuppressWarnings("unchecked")
+    private static int compare(Object a, Object b) {
+        return ((Comparable<Object>) a).compareTo(b);
+    }
+
+    /**
+     * Keeps the groups of the k largest keys seen so far.
+     */
+    private class Selector implements CsvScanner.RowVisitor {
+        private final int field;
+        private final boolean text;
+        private final PriorityQueue<Group> heap = new PriorityQueue<>((a, b) -> compare(a.key, b.key));
+        private final Map<Object, Group> groups = new HashMap<>();
+        private long rows;
+
+        Selector(int field, boolean text) {
+            this.field = field;
+            this.text = text;
+        }
+
+        @Override
+        public boolean row(CsvScanner.Row row) {
+            if (row.fieldCount() < types.length) {
+                throw new IllegalArgumentException("Line at offset " + row.lineOffset() + " has "
+                        + row.fieldCount() + " columns, expected " + types.length);
+            }
+            long number = rows++;
+            boolean full = heap.size() == k;
+            Object key;
+            if (text) {
+                key = row.text(field);
+            } else {
+                // Adding zero turns -0.0 into 0.0, which the sorts treat as equal.
+                double value = row.parseDouble(field) + 0.0;
+                if (full && value < (Double) heap.peek().key) return true;
+                key = value;
+            }
+            Group group = groups.get(key);
+            if (group == null) {
+                if (full) {
+                    if (compare(key, heap.peek().key) < 0) return true;
+                    groups.remove(heap.poll().key);
+                }
+                group = new Group(key);
+                groups.put(key, group);
+                heap.add(group);
+            }
+            group.add(number, row.lineOffset(), row.length());
+            return true;
+        }
+    }
+
+    /**
+     * The rows sharing one key, in file order.
+     */
+    private static final class Group {
+        final Object key;
+        int size;
+        long[] rows = new long[4];
+        long[] offsets = new long[4];
+        int[] lengths = new int[4];
+
+        Group(Object key) {
+            this.key = key;
+        }
+
+        void add(long row, long offset, int length) {
+            if (size == rows.length) {
+                rows = Arrays.copyOf(rows, size * 2);
+                offsets = Arrays.copyOf(offsets, size * 2);
+                lengths = Arrays.copyOf(lengths, size * 2);
+            }
+            rows[size] = row;
+            offsets[size] = offset;
+            lengths[size++] = length;
+        }
+    }
+
+    /**
+     * @return the number of ranks found, at most k.
+     */
+    public int rankCount() {
+        return ranked == null ? 0 : ranked.length;
+    }
+
+    /**
+     * @param rank 1-based rank.
+     * @return true if some rows have the rank.
+     */
+    public boolean hasRank(int rank) {
+        return rank >= 1 && rank <= rankCount();
+    }
+
+    /**
+     * @param rank 1-based rank.
+     * @return the number of rows with the rank.
+     */
+    public int count(int rank) {
+        return group(rank).size;
+    }
+
+    /**
+     * Returns the rows with the given rank, in the order get(rank) prints them.
+     *
+     * @param rank 1-based rank.
+     * @return the 0-based row numbers.
+     */
+    public long[] rows(int rank) {
+        Group group = group(rank);
+        long[] rows = new long[group.size];
+        for (int i = group.size - 1, j = 0; i >= 0; i--) rows[j++] = group.rows[i];
+        return rows;
+    }
+
+    /**
+     * Prints the flight records with the given rank, in the same form as {@link RecordSorter#get(int)}.
+     *
+     * @param rank Specifies the rank of the records desired, from 1 to k.
+     */
+    public void get(int rank) throws IOException {
+        if (ranked == null) {
+            System.out.println("Records must be imported and sorted before rank is called!");
+            return;
+        }
+        if (rank <= 0) {
+            System.out.println("ERROR: Invalid rank input.");
+        } else if (rank > k && rankCount() == k) {
+            // Ranks past k may exist in the file but were not kept.
+            System.out.println("ERROR: Only the top " + k + " ranks are kept.");
+        } else {
+            System.out.println("RECORDS for " + columnName + " at RANK " + rank + ":");
+            if (!hasRank(rank)) {
+                System.out.println("No RECORDS found for " + columnName + " at RANK " + rank + "!");
+                return;
+            }
+            // Rows are printed last first, as RecordSorter.get walks a run of its stable sort.
+            Group group = ranked[rank - 1];
+            CsvScanner.LineReader lines = source.lines();
+            for (int i = group.size - 1; i >= 0; i--) {
+                System.out.println("ROW " + (group.rows[i] + 2) + ": "
+                        + ExternalMergeSort.format(lines.read(group.offsets[i], group.lengths[i]), types));
+            }
+        }
+    }
+
+    private Group group(int rank) {
+        if (!hasRank(rank)) throw new IllegalArgumentException("Rank " + rank + " is out of range 1.." + rankCount());
+        return ranked[rank - 1];
+    }
+
+    /**
+     * Drops the kept rows and closes the csv.
+     */
+    @Override
+    public void close() throws IOException {
+        if (source != null) source.close();
+        source = null;
+        ranked = null;
+    }
+
+    /**
+     * Prints the records with the top k ranks of a column.
+     * Usage: TopRanks file.csv column [k]
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Usage: TopRanks file.csv column [k]");
+            return;
+        }
+        int k = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        try (TopRanks top = new TopRanks(k)) {
+            top.select(args[0], Integer.parseInt(args[1]));
+            for (int rank = 1; rank <= top.rankCount(); rank++) top.get(rank);
+        }
+    }
+}
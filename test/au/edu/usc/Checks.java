@@ -0,0 +1,91 @@
+package au.edu.usc;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * Runs every check of the project. The project has no build file or test framework, so the checks are plain
+ * programs: each compares part of the project with a simple reference on seeded random data and throws an
+ * AssertionError at the first difference. Build and run them from the project directory:
+ * <pre>
+ *     javac -d out src/au/edu/usc/*.java test/au/edu/usc/*.java
+ *     java -cp out au.edu.usc.Checks
+ * </pre>
+ *
+ * @author Joseph Thurlow
+ */
+public final class Checks {
+
+    /**
+     * Code whose printed output is compared.
+     */
+    interface Action {
+        void run() throws Exception;
+    }
+
+    private Checks() {
+    }
+
+    /**
+     * @param ok the condition that must hold.
+     * @param message what went wrong, if it does not.
+     */
+    static void check(boolean ok, String message) {
+        if (!ok) throw new AssertionError(message);
+    }
+
+    /**
+     * Runs code with System.out captured.
+     *
+     * @param action the code to run.
+     * @return everything it printed.
+     */
+    static String output(Action action) throws Exception {
+        PrintStream out = System.out;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(bytes, true, StandardCharsets.UTF_8));
+        try {
+            action.run();
+        } finally {
+            System.setOut(out);
+        }
+        return bytes.toString(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Drops the runtime reports, with the blank lines around them, as they differ between runs.
+     *
+     * @param output printed output.
+     * @return the output without its runtime reports.
+     */
+    static String withoutRuntimes(String output) {
+        return output.replaceAll("\\RRuntime of .*\\R\\R", "");
+    }
+
+    /**
+     * @param prefix start of the directory name.
+     * @return a new empty directory, deleted when the JVM exits.
+     */
+    static File tempDir(String prefix) throws IOException {
+        File dir = Files.createTempDirectory(prefix).toFile();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> delete(dir)));
+        return dir;
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) delete(child);
+        }
+        file.delete();
+    }
+
+    public static void main(String[] args) throws Exception {
+        SortEngineCheck.main(args);
+        RankQueryCheck.main(args);
+        RouteSearchCheck.main(args);
+        ItineraryCacheCheck.main(args);
+        System.out.println("All checks passed.");
+    }
+}
@@ -0,0 +1,86 @@
+package au.edu.usc;
+
+import java.util.Optional;
+
+import static au.edu.usc.Checks.check;
+
+/**
+ * Checks the itinerary cache: that a lookup against a new graph empties it, that a result stored late for an older
+ * graph is dropped without emptying it, that each lookup counts one hit or miss, and its eviction by size and age.
+ *
+ * @author Joseph Thurlow
+ */
+public class ItineraryCacheCheck {
+
+    public static void main(String[] args) throws Exception {
+        RouteGraph.Builder builder = new RouteGraph.Builder();
+        int a = builder.city("ALPHA"), b = builder.city("BRAVO"), c = builder.city("CHARLIE");
+        builder.addRoute(a, b, 100);
+        builder.addRoute(b, c, 200);
+        RouteGraph old = builder.build(null), changed = old.withRoute("ALPHA", "CHARLIE", 250);
+        int alpha = old.id("ALPHA"), charlie = old.id("CHARLIE");
+        int month = ItineraryCache.ALL_MONTHS;
+        int cases = 0;
+
+        ItineraryCache cache = new ItineraryCache(10);
+        check(cache.getItinerary(old, alpha, charlie, month) == null, "Empty cache: hit");
+        cache.putItinerary(old, alpha, charlie, month, tree(old, alpha).itinerary(charlie));
+        Optional<Itinerary> hit = cache.getItinerary(old, alpha, charlie, month);
+        check(hit != null && hit.get().totalDistance() == 300, "Stored itinerary: " + hit);
+        check(cache.hits() == 1 && cache.misses() == 1, "Counts after one miss and one hit: " + cache);
+        cases++;
+
+        // A search on the new graph empties the cache, then one still running on the old graph finishes.
+        check(cache.getItinerary(changed, alpha, charlie, month) == null, "Lookup on a new graph: hit");
+        check(cache.size() == 0, "Lookup on a new graph: entries kept: " + cache);
+        cache.putItinerary(changed, alpha, charlie, month, tree(changed, alpha).itinerary(charlie));
+        cache.putItinerary(old, alpha, charlie, month, tree(old, alpha).itinerary(charlie));
+        cache.putTree(old, month, tree(old, alpha));
+        check(cache.size() == 1, "Late results for the old graph: " + cache);
+        hit = cache.getItinerary(changed, alpha, charlie, month);
+        check(hit != null && hit.get().totalDistance() == 250, "Late result replaced the new one: " + hit);
+        cases++;
+
+        // A point-to-point answer read from a cached tree counts as one hit, not a miss and a hit.
+        cache = new ItineraryCache(10);
+        check(cache.getTree(changed, alpha, month) == null, "Tree in an empty cache");
+        cache.putTree(changed, month, tree(changed, alpha));
+        hit = cache.getItinerary(changed, alpha, old.id("BRAVO"), month);
+        check(hit != null && hit.get().totalDistance() == 100, "Itinerary from a cached tree: " + hit);
+        check(cache.getTree(changed, alpha, month) != null, "Stored tree missed");
+        check(cache.hits() == 2 && cache.misses() == 1, "Counts with a tree: " + cache);
+        cases++;
+
+        // The searches look an answer up before storing it, which ties a new cache to the graph. The least
+        // recently used entry is then evicted first.
+        cache = new ItineraryCache(2);
+        cache.putItinerary(changed, 0, 1, month, null);
+        check(cache.size() == 0, "Result stored before any lookup");
+        check(cache.getItinerary(changed, 0, 1, month) == null, "Lookup in an empty cache: hit");
+        cache.putItinerary(changed, 0, 1, month, null);
+        cache.putItinerary(changed, 0, 2, month, null);
+        check(cache.getItinerary(changed, 0, 1, month) != null, "Entry evicted early");
+        cache.putItinerary(changed, 1, 2, month, null);
+        check(cache.getItinerary(changed, 0, 2, month) == null, "Least recently used entry kept");
+        check(cache.getItinerary(changed, 0, 1, month) != null && cache.getItinerary(changed, 1, 2, month) != null,
+                "Recently used entry evicted");
+        check(cache.evictions() == 1, "Evictions by size: " + cache);
+        cases++;
+
+        cache = new ItineraryCache(10, 20);
+        cache.getItinerary(changed, 0, 1, month);
+        cache.putItinerary(changed, 0, 1, month, null);
+        check(cache.getItinerary(changed, 0, 1, month) != null, "Entry expired early");
+        Thread.sleep(50);
+        check(cache.getItinerary(changed, 0, 1, month) == null, "Expired entry kept");
+        check(cache.evictions() == 1 && cache.size() == 0, "Evictions by age: " + cache);
+        cases++;
+        System.out.println("ItineraryCacheCheck: " + cases + " cases passed");
+    }
+
+    private static ShortestPathTree tree(RouteGraph graph, int source) {
+        SearchContext ctx = graph.acquire();
+        graph.shortestPaths(source, ctx);
+        return new ShortestPathTree(graph, source, ctx);
+    }
+}
@@ -0,0 +1,137 @@
+package au.edu.usc;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static au.edu.usc.Checks.check;
+
+/**
+ * Checks the rank queries that do not sort a loaded table, against {@link MergeSort#get(int)} on the whole file:
+ * ExternalMergeSort, TopRanks, and each engine's ingest of two more files after sorting the first.
+ *
+ * @author Joseph Thurlow
+ */
+public class RankQueryCheck {
+
+    public static void main(String[] args) throws Exception {
+        File dir = Checks.tempDir("ranks");
+        File first = new File(dir, "first.csv"), second = new File(dir, "second.csv");
+        File third = new File(dir, "third.csv"), all = new File(dir, "all.csv");
+        // The later files have cities and months the first has not, so text columns gain dictionary values.
+        new DatasetGenerator(11, 30, 200, DatasetGenerator.Distribution.ZIPF, 201901, 12).write(first, 20_000);
+        new DatasetGenerator(12, 40, 260, DatasetGenerator.Distribution.UNIFORM, 202001, 6).write(second, 3_000);
+        new DatasetGenerator(13, 45, 280, DatasetGenerator.Distribution.ZIPF, 201806, 3).write(third, 500);
+        concatenate(new File[]{first, second, third}, all);
+        int[] rowCounts = {20_000, 3_000, 500};
+        File runs = new File(dir, "runs");
+        runs.mkdir();
+
+        int cases = 0;
+        FlightTable table = FlightTable.read(all.getPath());
+        for (int column = 1; column <= table.columnCount(); column++) {
+            final int c = column;
+            MergeSort reference = new MergeSort();
+            Checks.output(() -> reference.sortRecords(table, c));
+            int rankCount = reference.getIndex().rankCount();
+            int[] ranks = {1, 2, 3, 5, rankCount / 2, rankCount - 1, rankCount, rankCount + 1};
+            String expected = printRanks(reference, ranks);
+            String name = table.columnName(column);
+
+            // 250 rows a run gives over 64 runs, so the runs are merged in two levels.
+            try (ExternalMergeSort external = new ExternalMergeSort(250, runs)) {
+                String actual = Checks.output(() -> {
+                    external.sortRecords(all.getPath(), c);
+                    for (int rank : ranks) external.get(rank);
+                });
+                check(Checks.withoutRuntimes(actual).equals(expected), "ExternalMergeSort on " + name);
+                check(external.rankCount() == rankCount, "ExternalMergeSort on " + name + ": rank count");
+                check(runs.list().length == 2, "ExternalMergeSort on " + name + ": run files left behind");
+            }
+            check(runs.list().length == 0, "ExternalMergeSort on " + name + ": files left after close");
+            cases++;
+
+            int[] topRanks = {1, 2, 3, 4, 5};
+            try (TopRanks top = new TopRanks(topRanks.length)) {
+                String actual = Checks.output(() -> {
+                    top.select(all.getPath(), c);
+                    for (int rank : topRanks) top.get(rank);
+                });
+                check(Checks.withoutRuntimes(actual).equals(printRanks(reference, topRanks)), "TopRanks on " + name);
+            }
+            cases++;
+
+            // Rows added by ingest are labelled with their line in the file they came from.
+            String ingestedExpected = relabel(expected, rowCounts, second.getPath(), third.getPath());
+            for (RecordSorter engine : new RecordSorter[]{new MergeSort(), new QuickSort(), new BucketSort(),
+                    new RadixSort()}) {
+                Checks.output(() -> {
+                    engine.sortRecords(FlightTable.read(first.getPath()), c);
+                    engine.ingest(second.getPath());
+                    engine.ingest(third.getPath());
+                });
+                check(printRanks(engine, ranks).equals(ingestedExpected),
+                        engine.getClass().getSimpleName() + " ingest on " + name);
+                cases++;
+            }
+        }
+
+        List<List<SortKey>> orders = Arrays.asList(
+                Arrays.asList(SortKey.desc(11), SortKey.asc(1), SortKey.desc(6)),
+                Arrays.asList(SortKey.asc(1), SortKey.desc(2)),
+                // Too wide to pack into a double, so the first file is keyed by the wide path.
+                Arrays.asList(SortKey.asc(8), SortKey.desc(9), SortKey.asc(4), SortKey.desc(7), SortKey.asc(10),
+                        SortKey.asc(1), SortKey.desc(2), SortKey.asc(3), SortKey.desc(5), SortKey.asc(6),
+                        SortKey.desc(11), SortKey.asc(12)));
+        for (List<SortKey> order : orders) {
+            MergeSort reference = new MergeSort(), ingested = new MergeSort();
+            Checks.output(() -> {
+                reference.sortRecords(table, order);
+                ingested.sortRecords(FlightTable.read(first.getPath()), order);
+                ingested.ingest(FlightTable.read(second.getPath()));
+                ingested.ingest(FlightTable.read(third.getPath()));
+            });
+            int rankCount = reference.getIndex().rankCount();
+            check(ingested.getIndex().rankCount() == rankCount, "Composite ingest on " + order + ": rank count");
+            int[] ranks = {1, 2, 100, rankCount / 3, rankCount / 2, rankCount - 1, rankCount};
+            check(printRanks(ingested, ranks).equals(relabel(printRanks(reference, ranks), rowCounts, "part 2",
+                    "part 3")), "Composite ingest on " + order);
+            cases++;
+        }
+        System.out.println("RankQueryCheck: " + cases + " cases passed");
+    }
+
+    private static String printRanks(RecordSorter sorter, int[] ranks) throws Exception {
+        return Checks.output(() -> {
+            for (int rank : ranks) sorter.get(rank);
+        });
+    }
+
+    // The rows of every file in turn, under the header of the first.
+    private static void concatenate(File[] files, File all) throws IOException {
+        try (Writer out = Files.newBufferedWriter(all.toPath(), StandardCharsets.UTF_8)) {
+            for (int f = 0; f < files.length; f++) {
+                List<String> lines = Files.readAllLines(files[f].toPath(), StandardCharsets.UTF_8);
+                for (String line : lines.subList(f == 0 ? 0 : 1, lines.size())) out.write(line + "\n");
+            }
+        }
+    }
+
+    // Turns the labels of rows of the combined file into those of the files the rows came from.
+    private static String relabel(String printed, int[] rowCounts, String... names) {
+        Matcher matcher = Pattern.compile("(?m)^ROW (\\d+):").matcher(printed);
+        StringBuilder sb = new StringBuilder();
+        while (matcher.find()) {
+            int row = Integer.parseInt(matcher.group(1)) - 2, part = 0;
+            while (row >= rowCounts[part]) row -= rowCounts[part++];
+            String label = "ROW " + (row + 2) + (part == 0 ? "" : " of " + names[part - 1]) + ":";
+            matcher.appendReplacement(sb, Matcher.quoteReplacement(label));
+        }
+        matcher.appendTail(sb);
+        return sb.toString();
+    }
+}
@@ -0,0 +1,336 @@
+package au.edu.usc;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+import static au.edu.usc.Checks.check;
+
+/**
+ * Checks every route search against a plain O(n^2) Dijkstra over the graph's direct routes: the single-source,
+ * point-to-point, bidirectional and A* searches, in every month and over all months, and the all-pairs table
+ * as routes are changed. The k shortest itineraries are checked against every simple path of a small graph, and
+ * the months of a graph whose builder was widened, as an ingest widens it, against a graph built in one go.
+ *
+ * @author Joseph Thurlow
+ */
+public class RouteSearchCheck {
+
+    private static final int FIRST_MONTH = 201901, LAST_MONTH = 201912;
+
+    public static void main(String[] args) throws Exception {
+        Random random = new Random(1859);
+        File dir = Checks.tempDir("routes");
+        RouteGraph graph = randomGraph(random, dir, 40, 150);
+        check(graph.isGuided(), "Every city has coordinates, so A* should be used");
+
+        int cases = checkSearches(graph, RouteGraph.ALL_MONTHS);
+        for (int month = FIRST_MONTH; month <= LAST_MONTH; month += 4) cases += checkSearches(graph, month);
+        cases += checkAllPairs(graph, random);
+
+        for (int trial = 0; trial < 5; trial++) {
+            cases += checkShortestItineraries(randomGraph(random, dir, 9, 30), random);
+        }
+        cases += checkExtendMonths(random);
+        System.out.println("RouteSearchCheck: " + cases + " cases passed");
+    }
+
+    /**
+     * Builds a graph of random cities in Australia whose routes each fly in some of the months, with distances
+     * up to 5% over the great-circle distance, as the real routes are.
+     */
+    private static RouteGraph randomGraph(Random random, File dir, int cities, int routes) throws IOException {
+        String[] names = new String[cities];
+        double[] latitudes = new double[cities], longitudes = new double[cities];
+        File coordinates = new File(dir, "coordinates-" + cities + "-" + random.nextInt(1 << 20) + ".csv");
+        try (Writer out = Files.newBufferedWriter(coordinates.toPath(), StandardCharsets.UTF_8)) {
+            out.write("City,Latitude,Longitude\n");
+            for (int i = 0; i < cities; i++) {
+                names[i] = "CITY " + (char) ('A' + i / 26) + (char) ('A' + i % 26);
+                latitudes[i] = -43 + 32 * random.nextDouble();
+                longitudes[i] = 114 + 39 * random.nextDouble();
+                out.write(String.format(Locale.ROOT, "%s,%.6f,%.6f%n", names[i], latitudes[i], longitudes[i]));
+            }
+        }
+        RouteGraph.Builder builder = new RouteGraph.Builder(FIRST_MONTH, LAST_MONTH);
+        int[] ids = new int[cities];
+        for (int i = 0; i < cities; i++) ids[i] = builder.city(names[i]);
+        Set<Long> taken = new HashSet<>();
+        while (taken.size() < routes) {
+            int u = random.nextInt(cities), v = random.nextInt(cities);
+            if (u == v || !taken.add((long) u << 32 | v)) continue;
+            double km = CityCoordinates.haversine(Math.toRadians(latitudes[u]), Math.toRadians(longitudes[u]),
+                    Math.toRadians(latitudes[v]), Math.toRadians(longitudes[v]));
+            int distance = Math.max(1, (int) Math.round(km * (1 + 0.05 * random.nextDouble())));
+            int seats = 100 + random.nextInt(5000);
+            for (int month = FIRST_MONTH; month <= LAST_MONTH; month++) {
+                if (month != LAST_MONTH && random.nextInt(3) == 0) continue;
+                builder.addRoute(ids[u], ids[v], distance, month);
+                builder.addTraffic(ids[u], ids[v], seats * (40 + random.nextInt(60)) / 100, seats);
+            }
+        }
+        return builder.build(CityCoordinates.load(coordinates.getPath()));
+    }
+
+    /**
+     * Adds random routes over 1997 to 2006, more than one word of month bits, to a builder for all those months and
+     * to one that starts with 2004 and is widened twice, moving its bits into the second word, before the records
+     * of other months are added.
+     */
+    private static int checkExtendMonths(Random random) {
+        int first = 199701, last = 200612, cities = 20;
+        RouteGraph.Builder whole = new RouteGraph.Builder(first, last);
+        RouteGraph.Builder widened = new RouteGraph.Builder(200401, 200412);
+        for (int i = 0; i < cities; i++) {
+            whole.city("CITY " + i);
+            widened.city("CITY " + i);
+        }
+        List<int[]> later = new ArrayList<>();
+        for (int r = 0; r < 400; r++) {
+            int from = random.nextInt(cities), to = random.nextInt(cities), distance = 1 + from + to;
+            int month = (1997 + random.nextInt(10)) * 100 + 1 + random.nextInt(12);
+            if (from == to) continue;
+            whole.addRoute(from, to, distance, month);
+            if (month / 100 == 2004) widened.addRoute(from, to, distance, month);
+            else later.add(new int[]{from, to, distance, month});
+        }
+        widened.extendMonths(200101, 200512);
+        widened.extendMonths(first, last);
+        for (int[] route : later) widened.addRoute(route[0], route[1], route[2], route[3]);
+
+        RouteGraph expected = whole.build(null), actual = widened.build(null);
+        int cases = 0;
+        for (int u = 0; u < cities; u++) {
+            for (int v = 0; v < cities; v++) {
+                for (int month = first; month <= last; month += month % 100 == 12 ? 89 : 1) {
+                    check(actual.operates(u, v, month) == expected.operates(u, v, month),
+                            "Widened months: " + u + " to " + v + " in " + month);
+                    cases++;
+                }
+            }
+        }
+        return cases;
+    }
+
+    // Distances from a city over the direct routes that fly in the month, by plain O(n^2) Dijkstra.
+    private static int[] dijkstra(RouteGraph graph, int source, int month) {
+        int n = graph.nodeCount();
+        int[] dist = new int[n];
+        boolean[] done = new boolean[n];
+        Arrays.fill(dist, RouteGraph.UNREACHABLE);
+        dist[source] = 0;
+        for (int round = 0; round < n; round++) {
+            int u = -1;
+            for (int v = 0; v < n; v++) {
+                if (!done[v] && dist[v] != RouteGraph.UNREACHABLE && (u < 0 || dist[v] < dist[u])) u = v;
+            }
+            if (u < 0) break;
+            done[u] = true;
+            for (int v = 0; v < n; v++) {
+                int weight = graph.weight(u, v);
+                if (weight == RouteGraph.UNREACHABLE || !graph.operates(u, v, month)) continue;
+                dist[v] = Math.min(dist[v], dist[u] + weight);
+            }
+        }
+        return dist;
+    }
+
+    private static int checkSearches(RouteGraph graph, int month) {
+        int n = graph.nodeCount(), cases = 0;
+        SearchContext forward = graph.acquire(), backward = graph.acquire();
+        for (int source = 0; source < n; source++) {
+            int[] expected = dijkstra(graph, source, month);
+            graph.shortestPaths(source, month, forward);
+            ShortestPathTree tree = new ShortestPathTree(graph, source, forward);
+            for (int target = 0; target < n; target++) {
+                String what = "month " + month + " from " + graph.name(source) + " to " + graph.name(target);
+                check(tree.distance(target) == expected[target], "Dijkstra " + what);
+                if (target == source) continue;
+                checkItinerary(graph, tree.itinerary(target), source, target, expected[target], month,
+                        "Shortest path tree " + what);
+
+                check(graph.shortestPath(source, target, month, forward) == expected[target], "Point to point " + what);
+                checkItinerary(graph, Itinerary.fromSearch(graph, forward, target), source, target,
+                        expected[target], month, "Point to point " + what);
+
+                int meet = graph.meetingPoint(source, target, month, forward, backward);
+                checkItinerary(graph, Itinerary.fromMeeting(graph, forward, backward, meet), source, target,
+                        expected[target], month, "Bidirectional " + what);
+
+                check(graph.guidedPath(source, target, month, forward) == expected[target], "A* " + what);
+                checkItinerary(graph, Itinerary.fromSearch(graph, forward, target), source, target,
+                        expected[target], month, "A* " + what);
+                cases += 4;
+            }
+        }
+        graph.release(forward);
+        graph.release(backward);
+        return cases;
+    }
+
+    // The itinerary must be a path of routes flying in the month, from source to target, of the expected length.
+    private static void checkItinerary(RouteGraph graph, Itinerary itinerary, int source, int target, int expected,
+                                       int month, String what) {
+        if (expected == RouteGraph.UNREACHABLE) {
+            check(itinerary == null, what + ": found a route between unconnected cities");
+            return;
+        }
+        check(itinerary != null, what + ": no route found");
+        check(itinerary.stop(0) == source && itinerary.stop(itinerary.stopCount() - 1) == target,
+                what + ": route does not join the cities");
+        int total = 0;
+        for (int i = 0; i < itinerary.legCount(); i++) {
+            int from = itinerary.stop(i), to = itinerary.stop(i + 1);
+            check(graph.weight(from, to) == itinerary.legDistance(i) && graph.operates(from, to, month),
+                    what + ": leg " + i + " is not a route");
+            total += itinerary.legDistance(i);
+        }
+        check(total == expected && itinerary.totalDistance() == expected,
+                what + ": distance " + itinerary.totalDistance() + ", expected " + expected);
+    }
+
+    /**
+     * Builds the all-pairs table, then changes routes one at a time, refreshing the table after each change
+     * and comparing it with Dijkstra from every city of the changed graph.
+     */
+    private static int checkAllPairs(RouteGraph graph, Random random) {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        AllPairsTable table = AllPairsTable.build(graph, pool);
+        int cases = compareAllPairs(table, "built");
+        for (int change = 0; change < 30; change++) {
+            int n = graph.nodeCount();
+            int u = random.nextInt(n), v = random.nextInt(n);
+            if (u == v) continue;
+            String from = graph.name(u), to = graph.name(v), what;
+            int weight = graph.weight(u, v);
+            if (change % 10 == 9) {
+                what = "route to new city from " + from;
+                graph = graph.withRoute(from, "NEW CITY " + change, 1 + random.nextInt(3000));
+            } else if (weight != RouteGraph.UNREACHABLE && random.nextBoolean()) {
+                what = "removed " + from + " -> " + to;
+                graph = graph.withoutRoute(from, to);
+            } else {
+                int distance = weight == RouteGraph.UNREACHABLE ? 1 + random.nextInt(3000)
+                        : Math.max(1, weight + random.nextInt(2 * weight) - weight);
+                what = "set " + from + " -> " + to + " from " + weight + " to " + distance;
+                graph = graph.withRoute(from, to, distance);
+            }
+            table = table.refresh(graph, pool);
+            check(table.graph() == graph, "All-pairs table after " + what + ": not of the changed graph");
+            cases += compareAllPairs(table, "after " + what);
+        }
+        pool.shutdown();
+
+        try {
+            graph.withRoute(graph.name(0), graph.name(1), 0);
+            check(false, "A route of 0 km between different cities should be rejected");
+        } catch (IllegalArgumentException expected) {
+            cases++;
+        }
+        return cases;
+    }
+
+    private static int compareAllPairs(AllPairsTable table, String what) {
+        RouteGraph graph = table.graph();
+        int n = graph.nodeCount();
+        for (int source = 0; source < n; source++) {
+            int[] expected = dijkstra(graph, source, RouteGraph.ALL_MONTHS);
+            for (int target = 0; target < n; target++) {
+                String pair = " from " + graph.name(source) + " to " + graph.name(target);
+                check(table.distance(source, target) == expected[target], "All-pairs table " + what + pair);
+                if (target != source) {
+                    checkItinerary(graph, table.itinerary(source, target), source, target, expected[target],
+                            RouteGraph.ALL_MONTHS, "All-pairs table " + what + pair);
+                }
+            }
+        }
+        return n * n;
+    }
+
+    /**
+     * Compares the k shortest itineraries under several constraints with every simple path of the graph that
+     * meets them, in the documented order: by distance, then number of legs, then the cities' ids.
+     */
+    private static int checkShortestItineraries(RouteGraph graph, Random random) {
+        int n = graph.nodeCount(), cases = 0;
+        // Half the routes have at least the median seats.
+        List<Integer> routeSeats = new ArrayList<>();
+        for (int u = 0; u < n; u++) {
+            for (int v = 0; v < n; v++) {
+                if (graph.weight(u, v) != RouteGraph.UNREACHABLE) routeSeats.add(graph.seats(u, v));
+            }
+        }
+        Collections.sort(routeSeats);
+        int seats = routeSeats.get(routeSeats.size() / 2), middle = FIRST_MONTH + 5;
+        List<ItineraryConstraints> constraints = Arrays.asList(ItineraryConstraints.NONE,
+                ItineraryConstraints.NONE.withMaxStopovers(0),
+                ItineraryConstraints.NONE.withMaxStopovers(2),
+                ItineraryConstraints.NONE.avoiding(graph.name(random.nextInt(n)), graph.name(random.nextInt(n))),
+                ItineraryConstraints.NONE.withMinSeats(seats),
+                ItineraryConstraints.NONE.withMinLoadFactor(60),
+                ItineraryConstraints.NONE.inMonth(middle),
+                ItineraryConstraints.NONE.inMonth(middle).withMaxStopovers(3).withMinLoadFactor(50));
+        for (ItineraryConstraints limits : constraints) {
+            for (int source = 0; source < n; source++) {
+                for (int target = 0; target < n; target++) {
+                    if (source == target) continue;
+                    List<int[]> expected = simplePaths(graph, source, target, limits);
+                    int k = 1 + random.nextInt(8);
+                    List<Itinerary> found = graph.shortestItineraries(source, target, k, limits);
+                    String what = "k = " + k + " from " + graph.name(source) + " to " + graph.name(target) + " with "
+                            + limits;
+                    check(found.size() == Math.min(k, expected.size()),
+                            "K shortest " + what + ": " + found.size() + " of " + expected.size() + " found");
+                    for (int i = 0; i < found.size(); i++) {
+                        int[] stops = new int[found.get(i).stopCount()];
+                        for (int s = 0; s < stops.length; s++) stops[s] = found.get(i).stop(s);
+                        check(Arrays.equals(stops, Arrays.copyOfRange(expected.get(i), 1, expected.get(i).length))
+                                        && found.get(i).totalDistance() == expected.get(i)[0],
+                                "K shortest " + what + ": itinerary " + (i + 1) + " is " + found.get(i));
+                    }
+                    cases++;
+                }
+            }
+        }
+        return cases;
+    }
+
+    // Every path that visits no city twice and meets the constraints, as {distance, stops...}, in order.
+    private static List<int[]> simplePaths(RouteGraph graph, int source, int target, ItineraryConstraints limits) {
+        List<int[]> paths = new ArrayList<>();
+        int[] stops = new int[graph.nodeCount()];
+        stops[0] = source;
+        extend(graph, target, limits, stops, 1, 0, new boolean[graph.nodeCount()], paths);
+        paths.sort(Comparator.<int[]>comparingInt(p -> p[0]).thenComparingInt(p -> p.length)
+                .thenComparing((a, b) -> Arrays.compare(a, 1, a.length, b, 1, b.length)));
+        return paths;
+    }
+
+    private static void extend(RouteGraph graph, int target, ItineraryConstraints limits, int[] stops, int count,
+                               int distance, boolean[] visited, List<int[]> paths) {
+        int u = stops[count - 1];
+        if (u == target) {
+            int[] path = new int[count + 1];
+            path[0] = distance;
+            System.arraycopy(stops, 0, path, 1, count);
+            paths.add(path);
+            return;
+        }
+        // A path of count stops so far has count - 1 stopovers once it goes on to another city.
+        if (count > 1 && limits.avoidedCities().contains(graph.name(u))) return;
+        if (count - 1 > limits.maxStopovers()) return;
+        visited[u] = true;
+        for (int v = 0; v < graph.nodeCount(); v++) {
+            int weight = graph.weight(u, v);
+            if (visited[v] || weight == RouteGraph.UNREACHABLE || !graph.operates(u, v, limits.yearMonth())
+                    || graph.seats(u, v) < limits.minSeats() || graph.loadFactor(u, v) < limits.minLoadFactor()) {
+                continue;
+            }
+            stops[count] = v;
+            extend(graph, target, limits, stops, count + 1, distance + weight, visited, paths);
+        }
+        visited[u] = false;
+    }
+}
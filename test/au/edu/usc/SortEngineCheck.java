@@ -0,0 +1,193 @@
+package au.edu.usc;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+import static au.edu.usc.Checks.check;
+
+/**
+ * Checks every sort engine, one thread and parallel, against a stable Arrays.sort of the same keys, then the
+ * rank index and composite keys built from the sorted keys against orders worked out row by row.
+ *
+ * @author Joseph Thurlow
+ */
+public class SortEngineCheck {
+
+    private static final int[] SIZES = {0, 1, 2, 3, 17, 100, 1000, 50_000};
+
+    /**
+     * Kinds of key arrays, chosen for the paths they take through the engines.
+     */
+    private enum Shape {
+        RANDOM, FEW_DISTINCT, ASCENDING, DESCENDING, CONSTANT, SIGNED_ZEROS, FRACTIONS, WIDE_RANGE;
+
+        double[] keys(Random random, int n) {
+            double[] keys = new double[n];
+            for (int i = 0; i < n; i++) {
+                switch (this) {
+                    case RANDOM: keys[i] = random.nextDouble() * 2e6 - 1e6; break;
+                    case FEW_DISTINCT: keys[i] = random.nextInt(8); break;
+                    case ASCENDING: keys[i] = i / 3; break;
+                    case DESCENDING: keys[i] = n - i / 3; break;
+                    case CONSTANT: keys[i] = 42; break;
+                    case SIGNED_ZEROS: keys[i] = random.nextBoolean() ? -0.0 : random.nextInt(3) - 1 + 0.0; break;
+                    case FRACTIONS: keys[i] = random.nextInt(1000) / 10.0; break;
+                    default: keys[i] = random.nextGaussian() * Math.pow(10, random.nextInt(300) - 150);
+                }
+            }
+            return keys;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        // Thresholds of 64 keys make even the small arrays take the parallel paths.
+        RecordSorter[] engines = {
+                new MergeSort(), new MergeSort(64, pool), new QuickSort(), new QuickSort(64, pool),
+                new BucketSort(), new BucketSort(64, pool), new RadixSort(), new RadixSort(64, pool)
+        };
+        Random random = new Random(20240601);
+        int cases = 0;
+        for (int size : SIZES) {
+            for (Shape shape : Shape.values()) {
+                double[] keys = shape.keys(random, size);
+                int[] expected = stableOrder(keys);
+                for (RecordSorter engine : engines) {
+                    checkSort(engine, keys, expected, shape + " keys of size " + size);
+                    cases++;
+                }
+                checkRankIndex(keys, expected, shape + " keys of size " + size);
+            }
+        }
+        pool.shutdown();
+        cases += checkCompositeKeys();
+        System.out.println("SortEngineCheck: " + cases + " cases passed");
+    }
+
+    // Row order a stable sort gives, with -0.0 equal to 0.0 as in the engines.
+    private static int[] stableOrder(double[] keys) {
+        Integer[] order = new Integer[keys.length];
+        for (int i = 0; i < order.length; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> Double.compare(keys[a] + 0.0, keys[b] + 0.0));
+        int[] rows = new int[order.length];
+        for (int i = 0; i < rows.length; i++) rows[i] = order[i];
+        return rows;
+    }
+
+    private static void checkSort(RecordSorter engine, double[] keys, int[] expected, String what) {
+        double[] sorted = keys.clone();
+        int[] idx = new int[keys.length];
+        for (int i = 0; i < idx.length; i++) idx[i] = i;
+        engine.sort(sorted, idx);
+        String name = engine.getClass().getSimpleName();
+        for (int i = 0; i < keys.length; i++) {
+            check(idx[i] == expected[i], name + " on " + what + ": row " + idx[i] + " at " + i + ", expected "
+                    + expected[i]);
+            check(sorted[i] == keys[idx[i]], name + " on " + what + ": key at " + i + " left its row");
+        }
+    }
+
+    private static void checkRankIndex(double[] keys, int[] order, String what) {
+        double[] sorted = new double[keys.length];
+        for (int i = 0; i < sorted.length; i++) sorted[i] = keys[order[i]] + 0.0;
+        RankIndex index = new RankIndex(sorted, order.clone());
+
+        // The distinct keys, largest first, and each one's rows as get prints them: last sorted row first.
+        List<Double> values = new ArrayList<>();
+        List<List<Integer>> rows = new ArrayList<>();
+        for (int i = sorted.length - 1; i >= 0; i--) {
+            if (i == sorted.length - 1 || sorted[i] != sorted[i + 1]) {
+                values.add(sorted[i]);
+                rows.add(new ArrayList<>());
+            }
+            rows.get(rows.size() - 1).add(order[i]);
+        }
+        check(index.rankCount() == values.size(), "RankIndex on " + what + ": " + index.rankCount() + " ranks");
+        check(index.rowCount() == keys.length, "RankIndex on " + what + ": " + index.rowCount() + " rows");
+        List<Integer> top = new ArrayList<>();
+        for (int rank = 1; rank <= values.size(); rank++) {
+            double value = values.get(rank - 1);
+            top.addAll(rows.get(rank - 1));
+            check(index.value(rank) == value, "RankIndex on " + what + ": value of rank " + rank);
+            check(index.count(rank) == rows.get(rank - 1).size(), "RankIndex on " + what + ": count of rank " + rank);
+            check(Arrays.equals(index.rows(rank), toArray(rows.get(rank - 1))),
+                    "RankIndex on " + what + ": rows of rank " + rank);
+            check(index.rankOf(value) == rank, "RankIndex on " + what + ": rank of " + value);
+            if (rank <= 5 || rank == values.size()) {
+                check(Arrays.equals(index.top(rank), toArray(top)), "RankIndex on " + what + ": top " + rank);
+            }
+        }
+        check(!index.hasRank(0) && !index.hasRank(values.size() + 1), "RankIndex on " + what + ": hasRank bounds");
+        if (values.size() > 2) {
+            double low = values.get(values.size() - 2), high = values.get(1);
+            List<Integer> inRange = new ArrayList<>();
+            for (int rank = 2; rank < values.size(); rank++) inRange.addAll(rows.get(rank - 1));
+            check(Arrays.equals(index.range(low, high), toArray(inRange)), "RankIndex on " + what + ": range");
+        }
+        if (sorted.length > 0) {
+            for (double percent : new double[]{0, 1, 25, 50, 99.9, 100}) {
+                int pos = Math.max(0, (int) Math.ceil(percent / 100 * sorted.length) - 1);
+                check(index.percentile(percent) == sorted[pos], "RankIndex on " + what + ": percentile " + percent);
+            }
+        }
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++) array[i] = list.get(i);
+        return array;
+    }
+
+    /**
+     * Sorts a generated table by several columns, through the packed keys and through the wide path that does
+     * not fit in a double, and checks that walking the ranks visits the rows in the requested order.
+     */
+    private static int checkCompositeKeys() throws Exception {
+        File dir = Checks.tempDir("composite");
+        File file = new File(dir, "records.csv");
+        new DatasetGenerator(7, 25, 150, DatasetGenerator.Distribution.ZIPF, 201801, 24).write(file, 5000);
+        FlightTable table = FlightTable.read(file.getPath());
+
+        List<List<SortKey>> orders = Arrays.asList(
+                Arrays.asList(SortKey.desc(11), SortKey.desc(6), SortKey.asc(1)),
+                Arrays.asList(SortKey.asc(2), SortKey.desc(12)),
+                // 12 columns of a few thousand distinct values each need far more than 53 bits.
+                Arrays.asList(SortKey.asc(8), SortKey.desc(9), SortKey.asc(4), SortKey.desc(7), SortKey.asc(10),
+                        SortKey.asc(1), SortKey.desc(2), SortKey.asc(3), SortKey.desc(5), SortKey.asc(6),
+                        SortKey.desc(11), SortKey.asc(12)));
+        int cases = 0;
+        for (List<SortKey> order : orders) {
+            MergeSort sorter = new MergeSort();
+            Checks.output(() -> sorter.sortRecords(table, order));
+            RankIndex index = sorter.getIndex();
+            Comparator<Integer> byOrder = (a, b) -> compareRows(table, order, a, b);
+            int seen = 0, previous = -1;
+            for (int rank = 1; rank <= index.rankCount(); rank++) {
+                int[] rows = index.rows(rank);
+                for (int row : rows) {
+                    check(byOrder.compare(rows[0], row) == 0, "Composite " + order + ": rank " + rank + " mixes rows");
+                }
+                check(previous < 0 || byOrder.compare(previous, rows[0]) < 0,
+                        "Composite " + order + ": rank " + rank + " is out of order");
+                previous = rows[0];
+                seen += rows.length;
+            }
+            check(seen == table.rowCount(), "Composite " + order + ": " + seen + " rows ranked");
+            cases++;
+        }
+        return cases;
+    }
+
+    // Negative if row a comes first in the order, as rank 1 does.
+    private static int compareRows(FlightTable table, List<SortKey> order, int a, int b) {
+        for (SortKey key : order) {
+            int column = key.getColumn();
+            int c = table.columnType(column) == FlightTable.Type.TEXT
+                    ? table.getString(column, a).compareTo(table.getString(column, b))
+                    : Double.compare(table.getDouble(column, a), table.getDouble(column, b));
+            if (c != 0) return key.isDescending() ? -c : c;
+        }
+        return 0;
+    }
+}